@@ -0,0 +1,78 @@
+package com.eli.calc.shape.config;
+
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.core.env.PropertyResolver;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+
+/**
+ * Matches when persist.backend (base.properties) names the given backend:
+ * "jpa" (the default - MySQL through PersistContext) or "memory".
+ * 
+ * The conditions for the results service look at persist.results.backend
+ * first, which can move the results alone to the "log" backend (ResultLog).
+ */
+public abstract class PersistBackendCondition implements Condition {
+
+	public static final String JPA = "jpa";
+	public static final String MEMORY = "memory";
+	public static final String LOG = "log";
+
+	private final String backend;
+
+	private final boolean results;
+
+	protected PersistBackendCondition(String backend, boolean results) {
+		this.backend = backend;
+		this.results = results;
+	}
+
+	@Override
+	public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+
+		String selected = results ? getResultsBackend(context.getEnvironment()) : getBackend(context.getEnvironment());
+		return backend.equals(selected);
+	}
+
+	public static String getBackend(PropertyResolver env) {
+
+		String backend = env.getProperty("persist.backend", JPA).trim();
+		if (!JPA.equals(backend) && !MEMORY.equals(backend)) {
+			throw new IllegalStateException("persist.backend must be "+JPA+" or "+MEMORY+", not ["+backend+"]");
+		}
+		return backend;
+	}
+
+	/**
+	 * @return - persist.results.backend if it is set, otherwise persist.backend
+	 */
+	public static String getResultsBackend(PropertyResolver env) {
+
+		String backend = env.getProperty("persist.results.backend", "").trim();
+		if (backend.isEmpty()) { return getBackend(env); }
+		if (!LOG.equals(backend)) {
+			throw new IllegalStateException("persist.results.backend must be empty or "+LOG+", not ["+backend+"]");
+		}
+		return backend;
+	}
+
+	public static class Jpa extends PersistBackendCondition {
+		public Jpa() { super(JPA, false); }
+	}
+
+	public static class Memory extends PersistBackendCondition {
+		public Memory() { super(MEMORY, false); }
+	}
+
+	public static class JpaResults extends PersistBackendCondition {
+		public JpaResults() { super(JPA, true); }
+	}
+
+	public static class MemoryResults extends PersistBackendCondition {
+		public MemoryResults() { super(MEMORY, true); }
+	}
+
+	public static class LogResults extends PersistBackendCondition {
+		public LogResults() { super(LOG, true); }
+	}
+}
@@ -5,10 +5,12 @@ import java.util.Properties;
 import javax.persistence.EntityManagerFactory;
 import javax.sql.DataSource;
 
+import org.hibernate.SessionFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.DependsOn;
 import org.springframework.context.annotation.Import;
@@ -24,10 +26,16 @@ import org.springframework.orm.jpa.vendor.Database;
 import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
 
+import com.eli.calc.shape.persistence.HibernateCacheStatistics;
+import com.eli.calc.shape.persistence.ImmutableResultsIntegrator;
+import com.eli.calc.shape.persistence.ReadOnlySessionJpaDialect;
+import com.eli.calc.shape.persistence.RequestIds;
+import com.eli.calc.shape.persistence.migration.CompactKeyMigration;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 
 @Configuration
+@Conditional(PersistBackendCondition.Jpa.class)
 @PropertySource("classpath:persist.properties")
 @EnableTransactionManagement
 @EnableJpaRepositories(basePackages={"com.eli.calc.shape.persistence.repository"})
@@ -72,8 +80,17 @@ public class PersistContext {
 
 		entityManagerFactory.setDataSource(dataSource());
 		entityManagerFactory.setJpaVendorAdapter(jpaVendorAdapter());
+		entityManagerFactory.setJpaDialect(new ReadOnlySessionJpaDialect());
 		entityManagerFactory.setPackagesToScan("com.eli.calc.shape.domain");
 
+		if (isCompactKeys()) {
+			// numeric (calckind, dimensionbits) primary keys instead of (shapename, calctype, dimension)
+			if (Boolean.parseBoolean(env.getRequiredProperty("persist.compact.keys.migrate"))) {
+				new CompactKeyMigration(dataSource()).migrate();
+			}
+			entityManagerFactory.setMappingResources("META-INF/orm-compact-keys.xml");
+		}
+
 		Properties jpaProperties = new Properties();
 		jpaProperties.setProperty("hibernate.dialect", env.getRequiredProperty("hibernate.dialect"));
 		jpaProperties.setProperty("hibernate.hbm2ddl.auto", env.getRequiredProperty("hibernate.hbm2ddl.auto"));
@@ -82,11 +99,55 @@ public class PersistContext {
 		jpaProperties.setProperty("hibernate.format_sql", env.getRequiredProperty("hibernate.format_sql"));
 		jpaProperties.setProperty("org.hibernate.FlushMode", "commit");
 
+		//JDBC batching - group the inserts/deletes of the bulk operations
+		//into as few round trips as possible
+		jpaProperties.setProperty("hibernate.jdbc.batch_size", env.getRequiredProperty("hibernate.jdbc.batch_size"));
+		jpaProperties.setProperty("hibernate.order_inserts", env.getRequiredProperty("hibernate.order_inserts"));
+		jpaProperties.setProperty("hibernate.order_updates", env.getRequiredProperty("hibernate.order_updates"));
+		jpaProperties.setProperty("hibernate.jdbc.batch_versioned_data", "true");
+
+		//second-level and query cache - only CalculationResult is cacheable (ENABLE_SELECTIVE),
+		//and as results never change once stored, read-only is all the locking it needs.
+		//The singleton region factory lets several contexts in one JVM share the CacheManager
+		boolean cacheEnabled = isCacheEnabled();
+		jpaProperties.setProperty("hibernate.cache.use_second_level_cache", String.valueOf(cacheEnabled));
+		jpaProperties.setProperty("hibernate.cache.use_query_cache", String.valueOf(cacheEnabled));
+		jpaProperties.setProperty("hibernate.generate_statistics", String.valueOf(cacheEnabled));
+		if (cacheEnabled) {
+			jpaProperties.setProperty("hibernate.cache.region.factory_class", "org.hibernate.cache.ehcache.SingletonEhCacheRegionFactory");
+			jpaProperties.setProperty("net.sf.ehcache.configurationResourceName", "/ehcache-shape-calc.xml");
+			jpaProperties.setProperty("hibernate.cache.default_cache_concurrency_strategy", "read-only");
+			jpaProperties.setProperty("javax.persistence.sharedCache.mode", "ENABLE_SELECTIVE");
+		}
+
 		entityManagerFactory.setJpaProperties(jpaProperties);
+
+		if (isCompactKeys()) {
+			// the immutability and cache strategy that the compact mapping can not declare
+			entityManagerFactory.getJpaPropertyMap().put("hibernate.integrator_provider", new ImmutableResultsIntegrator());
+		}
 		
 		return entityManagerFactory;
 	}
 
+	@Bean
+	public RequestIds requestIds() {
+		return new RequestIds(isCompactKeys());
+	}
+
+	@Bean
+	public HibernateCacheStatistics hibernateCacheStatistics(EntityManagerFactory entityManagerFactory) {
+		return new HibernateCacheStatistics(entityManagerFactory.unwrap(SessionFactory.class), isCacheEnabled());
+	}
+
+	private boolean isCacheEnabled() {
+		return Boolean.parseBoolean(env.getRequiredProperty("persist.cache.enabled"));
+	}
+
+	private boolean isCompactKeys() {
+		return Boolean.parseBoolean(env.getRequiredProperty("persist.compact.keys"));
+	}
+
 	@Bean
 	public JpaTransactionManager transactionManager(EntityManagerFactory entityManagerFactory) {
 		JpaTransactionManager jpaTransactionManager = new JpaTransactionManager();
@@ -1,5 +1,7 @@
 package com.eli.calc.shape.config;
 
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -9,20 +11,31 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.EnableMBeanExport;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.context.annotation.PropertySource;
 import org.springframework.core.annotation.Order;
 import org.springframework.core.env.Environment;
+import org.springframework.jmx.support.RegistrationPolicy;
 
 import com.eli.calc.shape.service.CalculatedResults;
 import com.eli.calc.shape.service.PendingRequests;
+import com.eli.calc.shape.service.impl.AdmissionControl;
 import com.eli.calc.shape.service.impl.CalculatedResultsImpl;
+import com.eli.calc.shape.service.impl.InFlightCalculations;
 import com.eli.calc.shape.service.impl.PendingRequestsImpl;
+import com.eli.calc.shape.service.impl.RequestDispatcher;
+import com.eli.calc.shape.service.impl.RequestGroupCommit;
+import com.eli.calc.shape.service.impl.ResultBloomFilter;
+import com.eli.calc.shape.service.impl.ResultCache;
+import com.eli.calc.shape.service.impl.ResultPersistStage;
+import com.eli.calc.shape.service.impl.ResultWriteBehind;
 import com.eli.calc.shape.service.impl.ShapeCalculatorServiceImpl;
 
 @Configuration
 @ComponentScan(basePackages="com.eli.calc.shape")
 @PropertySource("classpath:base.properties")
+@EnableMBeanExport(registration=RegistrationPolicy.REPLACE_EXISTING)
 //formerly known as AppContext
 public class ShapeCalcBaseContext {
 
@@ -35,12 +48,167 @@ public class ShapeCalcBaseContext {
     	logger.debug("\n\n\nConstructor\n\n\n");
     }
 
+    public static final String EXECUTOR_FIXED = "fixed";
+    public static final String EXECUTOR_WORK_STEALING = "work-stealing";
+    public static final String EXECUTOR_VIRTUAL = "virtual";
+
     @Bean(name="executor")
     ExecutorService getExecutor() {
 
+        if (EXECUTOR_VIRTUAL.equals(getExecutorMode())) {
+            return newVirtualThreadPerTaskExecutor();
+        }
+
+        if (EXECUTOR_WORK_STEALING.equals(getExecutorMode())) {
+            // only blocks (see computeExecutor), so sized for the waits, not the cores
+            return Executors.newFixedThreadPool(
+                Integer.parseInt(env.getRequiredProperty("executor.blocking.pool.size"))
+            );
+        }
+
         return Executors.newFixedThreadPool(
             Integer.parseInt(env.getRequiredProperty("executor.threadpool.size"))
         );
     }
 
+    /**
+     * where the calculator tasks compute, once they are done waiting:
+     * a work-stealing pool of one thread per core - or, in fixed and
+     * virtual mode, the task's own thread
+     */
+    @Bean(name="computeExecutor")
+    Executor getComputeExecutor() {
+
+        if (EXECUTOR_WORK_STEALING.equals(getExecutorMode())) {
+            int parallelism = Integer.parseInt(env.getRequiredProperty("executor.parallelism"));
+            return Executors.newWorkStealingPool(
+                (0<parallelism) ? parallelism : Runtime.getRuntime().availableProcessors()
+            );
+        }
+
+        return Runnable::run;
+    }
+
+    String getExecutorMode() {
+
+        String mode = env.getRequiredProperty("executor.mode").trim();
+        if (!EXECUTOR_FIXED.equals(mode) && !EXECUTOR_WORK_STEALING.equals(mode) && !EXECUTOR_VIRTUAL.equals(mode)) {
+            throw new IllegalStateException("executor.mode must be "+EXECUTOR_FIXED+", "+EXECUTOR_WORK_STEALING
+                    +" or "+EXECUTOR_VIRTUAL+", not ["+mode+"]");
+        }
+        return mode;
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() - looked up at run time,
+     * as this is built for Java 8
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService)factory.invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("executor.mode="+EXECUTOR_VIRTUAL+" needs Java 21 or later, not "
+                    +System.getProperty("java.version"), e);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Bean(name="resultCache")
+    ResultCache getResultCache() {
+
+        return new ResultCache(
+            Integer.parseInt(env.getRequiredProperty("results.cache.max.size"))
+        );
+    }
+
+    @Bean(name="resultBloomFilter")
+    ResultBloomFilter getResultBloomFilter() {
+
+        return new ResultBloomFilter(
+            Boolean.parseBoolean(env.getRequiredProperty("results.bloom.enabled")),
+            Long.parseLong(env.getRequiredProperty("results.bloom.expected.insertions")),
+            Double.parseDouble(env.getRequiredProperty("results.bloom.fpp"))
+        );
+    }
+
+    @Bean(name="resultWriteBehind")
+    ResultWriteBehind getResultWriteBehind() {
+
+        return new ResultWriteBehind(
+            Boolean.parseBoolean(env.getRequiredProperty("results.write.behind.enabled")),
+            Integer.parseInt(env.getRequiredProperty("results.write.behind.queue.capacity")),
+            Integer.parseInt(env.getRequiredProperty("results.write.behind.max.batch.size")),
+            Long.parseLong(env.getRequiredProperty("results.write.behind.max.latency.ms")),
+            Long.parseLong(env.getRequiredProperty("results.write.behind.retry.interval.ms")),
+            Integer.parseInt(env.getRequiredProperty("results.write.behind.max.retries"))
+        );
+    }
+
+    @Bean(name="requestGroupCommit")
+    RequestGroupCommit getRequestGroupCommit() {
+
+        return new RequestGroupCommit(
+            Boolean.parseBoolean(env.getRequiredProperty("calculator.enqueue.group.commit.enabled")),
+            Long.parseLong(env.getRequiredProperty("calculator.enqueue.group.commit.window.micros")),
+            Integer.parseInt(env.getRequiredProperty("calculator.enqueue.group.commit.max.batch.size"))
+        );
+    }
+
+    @Bean(name="inFlightCalculations")
+    InFlightCalculations getInFlightCalculations() {
+
+        return new InFlightCalculations();
+    }
+
+    @Bean(name="requestDispatcher")
+    RequestDispatcher getRequestDispatcher() {
+
+        return new RequestDispatcher(
+            Boolean.parseBoolean(env.getRequiredProperty("calculator.dispatcher.autostart")),
+            Integer.parseInt(env.getRequiredProperty("calculator.dispatcher.max.in.flight")),
+            Long.parseLong(env.getRequiredProperty("calculator.dispatcher.poll.interval.ms"))
+        );
+    }
+
+    @Bean(name="admissionControl")
+    AdmissionControl getAdmissionControl() {
+
+        return new AdmissionControl(
+            Boolean.parseBoolean(env.getRequiredProperty("calculator.admission.enabled")),
+            getAdmissionPolicy(),
+            Long.parseLong(env.getRequiredProperty("calculator.admission.pending.high.watermark")),
+            Long.parseLong(env.getRequiredProperty("calculator.admission.pending.low.watermark")),
+            Integer.parseInt(env.getRequiredProperty("calculator.admission.in.flight.high.watermark")),
+            Integer.parseInt(env.getRequiredProperty("calculator.admission.in.flight.low.watermark")),
+            Long.parseLong(env.getRequiredProperty("calculator.admission.max.wait.ms")),
+            Long.parseLong(env.getRequiredProperty("calculator.admission.check.interval.ms")),
+            Long.parseLong(env.getRequiredProperty("calculator.admission.resync.interval.ms"))
+        );
+    }
+
+    /**
+     * calculator.admission.policy - block, timed-wait or reject
+     */
+    AdmissionControl.Policy getAdmissionPolicy() {
+
+        String policy = env.getRequiredProperty("calculator.admission.policy").trim();
+        try {
+            return AdmissionControl.Policy.valueOf(policy.toUpperCase().replace('-','_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("calculator.admission.policy must be block, timed-wait or reject, not ["+policy+"]", e);
+        }
+    }
+
+    @Bean(name="resultPersistStage")
+    ResultPersistStage getResultPersistStage() {
+
+        return new ResultPersistStage(
+            Boolean.parseBoolean(env.getRequiredProperty("calculator.persist.in.task.enabled")),
+            Integer.parseInt(env.getRequiredProperty("calculator.persist.in.task.max.concurrent"))
+        );
+    }
+
 }
\ No newline at end of file
@@ -6,7 +6,10 @@ import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
 import javax.persistence.Id;
 import javax.persistence.IdClass;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.Table;
+import javax.persistence.Transient;
 
 import org.springframework.stereotype.Component;
 
@@ -16,6 +19,22 @@ import com.eli.calc.shape.model.ShapeName;
 @Entity
 @Table( name="PENDING_REQUESTS")
 @IdClass(value=RequestPk.class)
+@NamedQueries({
+@NamedQuery(name="CalculationRequest.findAllUncalculated",
+	query="select r from CalculationRequest r where not exists ("
+			+ " select c from CalculationResult c"
+			+ " where c.shapeName = r.shapeName and c.calcType = r.calcType and c.dimension = r.dimension)"
+			+ " order by r.shapeName, r.calcType, r.dimension"),
+@NamedQuery(name="CalculationRequest.findUncalculatedAfter",
+	query="select r from CalculationRequest r where r.shapeName >= :shapeName and ("
+			+ " r.shapeName > :shapeName"
+			+ " or (r.shapeName = :shapeName and r.calcType > :calcType)"
+			+ " or (r.shapeName = :shapeName and r.calcType = :calcType and r.dimension > :dimension))"
+			+ " and not exists ("
+			+ " select c from CalculationResult c"
+			+ " where c.shapeName = r.shapeName and c.calcType = r.calcType and c.dimension = r.dimension)"
+			+ " order by r.shapeName, r.calcType, r.dimension")
+})
 public final class CalculationRequest {
 
 	@Id
@@ -31,6 +50,11 @@ public final class CalculationRequest {
 	@Id
 	@Column(name="dimension",nullable=false)
 	private Double dimension = new Double(0.0);
+
+	//the compact form of the three id fields above, kept in step by the setters;
+	//it is only persistent (as the id) when mapped by orm-compact-keys.xml
+	@Transient
+	private RequestKey key;
 	
 	public CalculationRequest() { }
 	
@@ -42,6 +66,7 @@ public final class CalculationRequest {
 		this.calcType = calcType;
 		if (null==dimension) { dimension = new Double(0.0); }
 		this.dimension = dimension;
+		this.key = RequestKey.of(shapeName,calcType,dimension);
 	}
 
 	public ShapeName getShapeName() {
@@ -50,6 +75,7 @@ public final class CalculationRequest {
 
 	public void setShapeName(ShapeName shapeName) {
 		this.shapeName = shapeName;
+		updateKey();
 	}
 
 	public CalcType getCalcType() {
@@ -58,6 +84,7 @@ public final class CalculationRequest {
 
 	public void setCalcType(CalcType calcType) {
 		this.calcType = calcType;
+		updateKey();
 	}
 
 	public Double getDimension() {
@@ -67,6 +94,16 @@ public final class CalculationRequest {
 	public void setDimension(Double dimension) {
 		if (null==dimension) { dimension = new Double(0.0); }
 		this.dimension = dimension;
+		updateKey();
+	}
+
+	public RequestKey getKey() {
+		if (null==key) { updateKey(); }
+		return key;
+	}
+
+	private void updateKey() {
+		this.key = (null==shapeName || null==calcType || null==dimension) ? null : RequestKey.of(shapeName,calcType,dimension);
 	}
 
 	@Override
@@ -1,5 +1,6 @@
 package com.eli.calc.shape.domain;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.EnumType;
@@ -7,13 +8,23 @@ import javax.persistence.Enumerated;
 import javax.persistence.Id;
 import javax.persistence.IdClass;
 import javax.persistence.Table;
+import javax.persistence.Transient;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Immutable;
 import org.springframework.stereotype.Component;
 
 import com.eli.calc.shape.model.CalcType;
 import com.eli.calc.shape.model.ShapeName;
 
+//a result never changes once stored: loaded instances are not snapshot or
+//dirty-checked at flush (orm-compact-keys.xml can not say so - with that
+//mapping ImmutableResultsIntegrator applies these last two annotations)
 @Entity
+@Immutable
+@Cacheable
+@Cache(usage=CacheConcurrencyStrategy.READ_ONLY)
 @Table(name="CALCULATION_RESULTS")
 @IdClass(value=RequestPk.class)
 public final class CalculationResult {
@@ -36,6 +47,11 @@ public final class CalculationResult {
 	private Double result;
 	
 	private boolean error = false;
+
+	//the compact form of the three id fields above, kept in step by the setters;
+	//it is only persistent (as the id) when mapped by orm-compact-keys.xml
+	@Transient
+	private RequestKey key;
 	
 	public CalculationResult() { }
 	
@@ -46,6 +62,7 @@ public final class CalculationResult {
 		this.shapeName = request.getShapeName();
 		this.calcType = request.getCalcType();
 		this.dimension = request.getDimension();
+		this.key = request.getKey();
 
 	}
 
@@ -65,6 +82,7 @@ public final class CalculationResult {
 	public void setShapeName(ShapeName shapeName) {
 		if (null==shapeName){throw new IllegalArgumentException("ShapeName is required."); }
 		this.shapeName = shapeName;
+		updateKey();
 	}
 
 	public CalcType getCalcType() {
@@ -74,6 +92,7 @@ public final class CalculationResult {
 	public void setCalcType(CalcType calcType) {
 		if (null==calcType){throw new IllegalArgumentException("CalcType is required."); }
 		this.calcType = calcType;
+		updateKey();
 	}
 
 	public Double getDimension() {
@@ -82,6 +101,7 @@ public final class CalculationResult {
 
 	public void setDimension(Double dimension) {
 		this.dimension = dimension;
+		updateKey();
 	}
 
 	public Double getResult() {
@@ -105,6 +125,15 @@ public final class CalculationResult {
 		return new CalculationRequest(this.shapeName,this.calcType,this.dimension);
 	}
 
+	public RequestKey getKey() {
+		if (null==key) { updateKey(); }
+		return key;
+	}
+
+	private void updateKey() {
+		this.key = (null==shapeName || null==calcType || null==dimension) ? null : RequestKey.of(shapeName,calcType,dimension);
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
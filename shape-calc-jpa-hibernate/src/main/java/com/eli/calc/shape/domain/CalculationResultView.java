@@ -0,0 +1,80 @@
+package com.eli.calc.shape.domain;
+
+import com.eli.calc.shape.model.CalcType;
+import com.eli.calc.shape.model.ShapeName;
+
+/**
+ * Immutable, read-only view of a stored CalculationResult.
+ * 
+ * Built straight from the query columns by a JPQL constructor expression,
+ * so it is never an entity: nothing is put in the persistence context and
+ * no snapshot is kept for dirty checking.
+ */
+public final class CalculationResultView {
+
+	private final ShapeName shapeName;
+
+	private final CalcType calcType;
+
+	private final double dimension;
+
+	private final double result;
+
+	private final boolean error;
+
+	public CalculationResultView(ShapeName shapeName, CalcType calcType, Double dimension, Double result, Boolean error) {
+		this.shapeName = shapeName;
+		this.calcType = calcType;
+		this.dimension = dimension;
+		this.result = result;
+		this.error = error;
+	}
+
+	public ShapeName getShapeName() {
+		return shapeName;
+	}
+
+	public CalcType getCalcType() {
+		return calcType;
+	}
+
+	public double getDimension() {
+		return dimension;
+	}
+
+	public double getResult() {
+		return result;
+	}
+
+	public boolean isError() {
+		return error;
+	}
+
+	public CalculationRequest getRequest() {
+		return new CalculationRequest(shapeName,calcType,dimension);
+	}
+
+	@Override
+	public int hashCode() {
+		return RequestKey.of(shapeName,calcType,dimension).hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof CalculationResultView))
+			return false;
+		CalculationResultView other = (CalculationResultView) obj;
+		return shapeName == other.shapeName
+				&& calcType == other.calcType
+				&& Double.doubleToLongBits(dimension) == Double.doubleToLongBits(other.dimension);
+	}
+
+	@Override
+	public String toString() {
+		return "CalculationResultView [shapeName=" + shapeName + ", calcType=" + calcType + ", dimension=" + dimension
+				+ ", result=" + result + ", error=" + error + "]";
+	}
+
+}
@@ -0,0 +1,119 @@
+package com.eli.calc.shape.domain;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+
+import com.eli.calc.shape.model.CalcType;
+import com.eli.calc.shape.model.ShapeName;
+
+/**
+ * Compact, fixed-width encoding of a (shapeName, calcType, dimension) request key:
+ * the two enum ordinals folded into one small integer, plus the raw bits of the dimension.
+ * 
+ * Used as the key of the in-memory maps, and (with persist.compact.keys=true)
+ * as the primary key of PENDING_REQUESTS and CALCULATION_RESULTS
+ * in place of the two varchar columns and the double of RequestPk.
+ * 
+ * Two keys are equal exactly when the Double dimensions are equal(),
+ * and for the (non-negative) dimensions that can be queued, the natural
+ * ordering of the dimension bits is the numeric ordering of the dimensions.
+ */
+@Embeddable
+public final class RequestKey implements Serializable, Comparable<RequestKey> {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final ShapeName[] SHAPE_NAMES = ShapeName.values();
+
+	private static final CalcType[] CALC_TYPES = CalcType.values();
+
+	@Column(name="calckind",nullable=false)
+	private int kind;
+
+	@Column(name="dimensionbits",nullable=false)
+	private long dimensionBits;
+
+	protected RequestKey() { }
+
+	private RequestKey(int kind, long dimensionBits) {
+		this.kind = kind;
+		this.dimensionBits = dimensionBits;
+	}
+
+	public static RequestKey of(ShapeName shapeName, CalcType calcType, double dimension) {
+
+		if (null==shapeName) { throw new IllegalArgumentException("ShapeName required"); }
+		if (null==calcType) { throw new IllegalArgumentException("CalcType required"); }
+
+		return new RequestKey(
+				shapeName.ordinal() * CALC_TYPES.length + calcType.ordinal(),
+				Double.doubleToLongBits(dimension));
+	}
+
+	public static RequestKey of(CalculationRequest request) {
+		return of(request.getShapeName(),request.getCalcType(),request.getDimension());
+	}
+
+	/**
+	 * the inverse of getKind() / getDimensionBits()
+	 */
+	public static RequestKey valueOf(int kind, long dimensionBits) {
+		if (kind < 0 || kind >= SHAPE_NAMES.length * CALC_TYPES.length) {
+			throw new IllegalArgumentException("invalid kind "+kind);
+		}
+		return new RequestKey(kind, dimensionBits);
+	}
+
+	public int getKind() {
+		return kind;
+	}
+
+	public long getDimensionBits() {
+		return dimensionBits;
+	}
+
+	public ShapeName getShapeName() {
+		return SHAPE_NAMES[kind / CALC_TYPES.length];
+	}
+
+	public CalcType getCalcType() {
+		return CALC_TYPES[kind % CALC_TYPES.length];
+	}
+
+	public double getDimension() {
+		return Double.longBitsToDouble(dimensionBits);
+	}
+
+	public CalculationRequest toRequest() {
+		return new CalculationRequest(getShapeName(),getCalcType(),getDimension());
+	}
+
+	@Override
+	public int compareTo(RequestKey other) {
+		if (kind != other.kind) { return (kind < other.kind) ? -1 : 1; }
+		return Long.compare(dimensionBits, other.dimensionBits);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * kind + (int)(dimensionBits ^ (dimensionBits >>> 32));
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof RequestKey))
+			return false;
+		RequestKey other = (RequestKey) obj;
+		return kind == other.kind && dimensionBits == other.dimensionBits;
+	}
+
+	@Override
+	public String toString() {
+		return "RequestKey [kind=" + kind + ", dimensionBits=" + Long.toHexString(dimensionBits) + "]";
+	}
+
+}
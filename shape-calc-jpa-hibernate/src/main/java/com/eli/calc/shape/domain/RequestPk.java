@@ -15,6 +15,12 @@ public class RequestPk implements Serializable {
 
 	public RequestPk() {}
 
+	public RequestPk(ShapeName shapeName, CalcType calcType, Double dimension) {
+		this.shapeName = shapeName;
+		this.calcType = calcType;
+		this.dimension = dimension;
+	}
+
 	public ShapeName getShapeName() {
 		return shapeName;
 	}
@@ -6,4 +6,9 @@ public abstract class AbstractShapeCalculationsImpl implements EqualDimShapeCalc
 
 	protected PsuedoTimeHelper faketime = new PsuedoTimeHelper();
 
+	@Override
+	public void simulateLatency() {
+		faketime.sleep();
+	}
+
 }
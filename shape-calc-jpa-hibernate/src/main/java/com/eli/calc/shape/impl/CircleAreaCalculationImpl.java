@@ -29,8 +29,6 @@ public final class CircleAreaCalculationImpl extends AbstractShapeCalculationsIm
 
 		logger.debug("calc area of Circle of " + n);
 
-		faketime.sleep();
-		
 		return Math.PI*n*n;
 	}
 
@@ -19,6 +19,11 @@ public final class CircleVolumeCalculationImpl extends AbstractShapeCalculations
 	@Override
 	public ShapeName getShapeName() { return name; }
 
+	@Override
+	public void simulateLatency() {
+		// nothing to wait for - there is no volume to calculate
+	}
+
 	/**
 	 * this calculates volume
 	 */
@@ -29,8 +29,6 @@ public final class EquilateralTriangleAreaCalculationImpl extends AbstractShapeC
 
 		logger.debug("calc area of Equilateral Triangle of {}", n);
 
-		faketime.sleep();
-		
 		return (Math.sqrt(3) / 4 ) * (n * n);
 		
 	}
@@ -30,8 +30,6 @@ public final class SphereVolumeCalculationImpl extends AbstractShapeCalculations
 
 		logger.debug("calc volume of Sphere of {}", n);
 		
-		faketime.sleep();
-		
 		double fourdivthree = (4.0/3.0);
 		double powofthree   = Math.pow(n, 3);
 		return fourdivthree*Math.PI*powofthree;
@@ -20,6 +20,11 @@ public final class SquareVolumeCalculationImpl extends AbstractShapeCalculations
 	public ShapeName getShapeName() { return name; }
 
 
+	@Override
+	public void simulateLatency() {
+		// nothing to wait for - there is no volume to calculate
+	}
+
 	/**
 	 *  this calculates volume
 	 */
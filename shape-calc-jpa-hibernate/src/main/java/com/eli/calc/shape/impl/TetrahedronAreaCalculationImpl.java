@@ -30,8 +30,6 @@ public final class TetrahedronAreaCalculationImpl extends AbstractShapeCalculati
 
 		logger.debug("calc surface area of Tetrahedron of {}",n);
 
-		faketime.sleep();
-		
 		return Math.sqrt(3)  * (n * n);
 		
 	}
@@ -30,8 +30,6 @@ public final class TetrahedronVolumeCalculationImpl extends AbstractShapeCalcula
 
 		logger.debug("calc volume of Tetrahedron of {}",n);
 
-		faketime.sleep();
-
 		double sqrt = Math.sqrt(2);
 		double denominator = (6*sqrt);
 		double nCubed = n*n*n;
@@ -6,6 +6,13 @@ public interface EqualDimShapeCalculations {
 	
 	CalcType getCalcType();
 	
+	/**
+	 * The blocking part of a calculation - a (simulated) wait for what it
+	 * needs - kept apart from calculate(), which only computes, so the two
+	 * can run on different threads. Call it first.
+	 */
+	void simulateLatency();
+
 	double calculate(double d);
 
 	int hashCode();
@@ -0,0 +1,105 @@
+package com.eli.calc.shape.persistence;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.eli.calc.shape.domain.CalculationResult;
+
+/**
+ * The Hibernate second-level and query cache counts, for sizing the
+ * regions (see ehcache-shape-calc.xml). All zero unless persist.cache.enabled=true.
+ */
+@ManagedResource(objectName="com.eli.calc.shape:type=HibernateCache", description="Hibernate second-level and query cache")
+public class HibernateCacheStatistics {
+
+	private static final Logger logger = LoggerFactory.getLogger(HibernateCacheStatistics.class);
+
+	private static final String RESULT_REGION = CalculationResult.class.getName();
+
+	private final SessionFactory sessionFactory;
+
+	private final boolean enabled;
+
+	public HibernateCacheStatistics(SessionFactory sessionFactory, boolean enabled) {
+
+		if (null==sessionFactory) { throw new IllegalArgumentException("SessionFactory can not be null"); }
+
+		this.sessionFactory = sessionFactory;
+		this.enabled = enabled;
+
+		logger.debug("hibernate cache enabled={}",enabled);
+	}
+
+	@ManagedAttribute(description="Whether the second-level and query caches are in use")
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@ManagedAttribute(description="Entity lookups answered from the second-level cache")
+	public long getSecondLevelCacheHitCount() {
+		return statistics().getSecondLevelCacheHitCount();
+	}
+
+	@ManagedAttribute(description="Entity lookups that went to the database")
+	public long getSecondLevelCacheMissCount() {
+		return statistics().getSecondLevelCacheMissCount();
+	}
+
+	@ManagedAttribute(description="Entities put in the second-level cache")
+	public long getSecondLevelCachePutCount() {
+		return statistics().getSecondLevelCachePutCount();
+	}
+
+	@ManagedAttribute(description="Queries answered from the query cache")
+	public long getQueryCacheHitCount() {
+		return statistics().getQueryCacheHitCount();
+	}
+
+	@ManagedAttribute(description="Cacheable queries that went to the database")
+	public long getQueryCacheMissCount() {
+		return statistics().getQueryCacheMissCount();
+	}
+
+	@ManagedAttribute(description="Query results put in the query cache")
+	public long getQueryCachePutCount() {
+		return statistics().getQueryCachePutCount();
+	}
+
+	@ManagedAttribute(description="Results held in heap by the result region")
+	public long getResultRegionElementCount() {
+		SecondLevelCacheStatistics region = resultRegion();
+		return (null==region) ? 0 : region.getElementCountInMemory();
+	}
+
+	@ManagedAttribute(description="Bytes of heap used by the result region (-1 if not known)")
+	public long getResultRegionSizeInMemory() {
+		SecondLevelCacheStatistics region = resultRegion();
+		return (null==region) ? 0 : region.getSizeInMemory();
+	}
+
+	@ManagedOperation(description="Zero the counts")
+	public void clearStatistics() {
+		statistics().clear();
+	}
+
+	@ManagedOperation(description="Empty the second-level and query caches")
+	public void evictAll() {
+		if (!enabled) { return; }
+		sessionFactory.getCache().evictAllRegions();
+	}
+
+	private Statistics statistics() {
+		return sessionFactory.getStatistics();
+	}
+
+	private SecondLevelCacheStatistics resultRegion() {
+		return enabled ? statistics().getSecondLevelCacheStatistics(RESULT_REGION) : null;
+	}
+
+}
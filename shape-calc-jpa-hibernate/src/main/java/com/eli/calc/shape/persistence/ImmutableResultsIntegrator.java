@@ -0,0 +1,45 @@
+package com.eli.calc.shape.persistence;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.hibernate.boot.Metadata;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
+import org.hibernate.mapping.RootClass;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+
+import com.eli.calc.shape.domain.CalculationResult;
+
+/**
+ * What the @Immutable and @Cache(usage=READ_ONLY) annotations of CalculationResult
+ * say, for the metadata-complete orm-compact-keys.xml mapping (which ignores them,
+ * and has no element for either): applied to the bound mapping, before the
+ * session factory builds its persisters and cache regions from it.
+ * 
+ * Registered as the hibernate.integrator_provider.
+ */
+public class ImmutableResultsIntegrator implements Integrator, IntegratorProvider {
+
+	@Override
+	public List<Integrator> getIntegrators() {
+		return Collections.<Integrator>singletonList(this);
+	}
+
+	@Override
+	public void integrate(Metadata metadata, SessionFactoryImplementor sessionFactory,
+			SessionFactoryServiceRegistry serviceRegistry) {
+
+		RootClass results = (RootClass)metadata.getEntityBinding(CalculationResult.class.getName());
+		if (null==results) { throw new IllegalStateException("CalculationResult is not mapped."); }
+
+		results.setMutable(false);
+		results.setCacheConcurrencyStrategy(AccessType.READ_ONLY.getExternalName());
+	}
+
+	@Override
+	public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+	}
+}
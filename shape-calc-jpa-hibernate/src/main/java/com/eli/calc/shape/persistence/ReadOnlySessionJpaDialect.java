@@ -0,0 +1,62 @@
+package com.eli.calc.shape.persistence;
+
+import java.sql.SQLException;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+
+import org.hibernate.Session;
+import org.springframework.orm.jpa.vendor.HibernateJpaDialect;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionException;
+
+/**
+ * Makes the session of a read-only transaction default to read-only, so
+ * everything it loads (not only the queries marked setReadOnly) is kept
+ * without a snapshot and is never dirty-checked. The stock dialect only
+ * switches the flush mode to manual.
+ */
+public class ReadOnlySessionJpaDialect extends HibernateJpaDialect {
+
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	public Object beginTransaction(EntityManager entityManager, TransactionDefinition definition)
+			throws PersistenceException, SQLException, TransactionException {
+
+		Object transactionData = super.beginTransaction(entityManager, definition);
+		if (!definition.isReadOnly()) {
+			return transactionData;
+		}
+
+		Session session = entityManager.unwrap(Session.class);
+		ReadOnlyTransactionData readOnlyData = new ReadOnlyTransactionData(transactionData, session);
+		session.setDefaultReadOnly(true);
+		return readOnlyData;
+	}
+
+	@Override
+	public void cleanupTransaction(Object transactionData) {
+
+		if (transactionData instanceof ReadOnlyTransactionData) {
+			ReadOnlyTransactionData readOnlyData = (ReadOnlyTransactionData)transactionData;
+			// the session may outlive the transaction (when it joined one already bound)
+			readOnlyData.session.setDefaultReadOnly(readOnlyData.previousDefaultReadOnly);
+			transactionData = readOnlyData.transactionData;
+		}
+		super.cleanupTransaction(transactionData);
+	}
+
+	private static class ReadOnlyTransactionData {
+
+		private final Object transactionData;
+		private final Session session;
+		private final boolean previousDefaultReadOnly;
+
+		private ReadOnlyTransactionData(Object transactionData, Session session) {
+			this.transactionData = transactionData;
+			this.session = session;
+			this.previousDefaultReadOnly = session.isDefaultReadOnly();
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package com.eli.calc.shape.persistence;
+
+import com.eli.calc.shape.domain.CalculationRequest;
+import com.eli.calc.shape.domain.RequestPk;
+
+/**
+ * Knows which primary key the entities are mapped with
+ * (RequestPk by default, RequestKey with persist.compact.keys=true)
+ * and builds the matching id for EntityManager lookups.
+ */
+public class RequestIds {
+
+	private final boolean compactKeys;
+
+	public RequestIds(boolean compactKeys) {
+		this.compactKeys = compactKeys;
+	}
+
+	public boolean isCompactKeys() {
+		return compactKeys;
+	}
+
+	public Object idOf(CalculationRequest request) {
+
+		if (compactKeys) { return request.getKey(); }
+
+		return new RequestPk(request.getShapeName(),request.getCalcType(),request.getDimension());
+	}
+}
@@ -0,0 +1,26 @@
+package com.eli.calc.shape.persistence;
+
+import java.util.Comparator;
+
+import com.eli.calc.shape.domain.CalculationRequest;
+
+/**
+ * (shapeName, calcType, dimension) order, as the database sorts them:
+ * the enums by name (they are stored as strings), then the dimension.
+ */
+public final class RequestOrder implements Comparator<CalculationRequest> {
+
+	public static final RequestOrder INSTANCE = new RequestOrder();
+
+	private RequestOrder() { }
+
+	@Override
+	public int compare(CalculationRequest a, CalculationRequest b) {
+
+		int c = a.getShapeName().name().compareTo(b.getShapeName().name());
+		if (0!=c) { return c; }
+		c = a.getCalcType().name().compareTo(b.getCalcType().name());
+		if (0!=c) { return c; }
+		return Double.compare(a.getDimension(), b.getDimension());
+	}
+}
@@ -0,0 +1,572 @@
+package com.eli.calc.shape.persistence.log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eli.calc.shape.domain.CalculationRequest;
+import com.eli.calc.shape.domain.CalculationResult;
+import com.eli.calc.shape.domain.RequestKey;
+import com.eli.calc.shape.persistence.RequestOrder;
+
+/**
+ * Calculated results kept in an append-only log of memory-mapped segment
+ * files (results-NNNNNNNNNN.log in one directory), with an in-memory index
+ * from each request to the record holding its latest result.
+ * 
+ * Every change is appended as a fixed-width, checksummed record: a result,
+ * a tombstone (one result deleted) or a clear (all results deleted).
+ * open() replays the segments in order to rebuild the index. A segment is
+ * read up to its first unwritten, torn or corrupt record; for the last
+ * segment that is where appending resumes.
+ * 
+ * compact() copies the live records into new segments and then retires the
+ * old ones, oldest first, so a crash part way through still replays to the
+ * same results. A retired segment has its first record zeroed before it is
+ * deleted, so that one that can not be deleted yet (still mapped) reads as empty.
+ * 
+ * Only one ResultLog at a time can have the directory open (a lock
+ * is held on its LOCK file).
+ * 
+ * Appended records are in the page cache straight away, so they survive
+ * the process dying; they reach the disk when a segment fills, on sync()
+ * and close(), or after every change with syncEveryWrite.
+ */
+public class ResultLog implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(ResultLog.class);
+
+	// type(1) flags(1) unused(2) kind(4) dimensionBits(8) resultBits(8) crc(4) unused(4)
+	static final int RECORD_SIZE = 32;
+	private static final int CRC_OFFSET = 24;
+
+	private static final byte PUT = 1;
+	private static final byte DELETE = 2;
+	private static final byte CLEAR = 3;
+
+	private static final byte ERROR = 1;
+	private static final byte HAS_RESULT = 2;
+
+	private static final String PREFIX = "results-";
+	private static final String SUFFIX = ".log";
+
+	private static final int PAGE_SIZE = 1000;
+
+	private final File dir;
+
+	private final int segmentSize;
+
+	private final boolean syncEveryWrite;
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	//all guarded by lock
+	private final NavigableMap<Integer,Segment> segments = new TreeMap<Integer,Segment>();
+
+	private NavigableMap<CalculationRequest,Long> index = new TreeMap<CalculationRequest,Long>(RequestOrder.INSTANCE);
+
+	private Segment active;
+
+	private FileChannel lockChannel;
+
+	private long numRecords;
+
+	private boolean open;
+
+	/**
+	 * @param dir - where the segments are kept; created if need be
+	 * @param segmentSize - bytes per segment file (rounded down to whole records)
+	 * @param syncEveryWrite - force each change to disk before returning
+	 */
+	public ResultLog(File dir, int segmentSize, boolean syncEveryWrite) {
+
+		if (null==dir) { throw new IllegalArgumentException("dir is required"); }
+		if (segmentSize < RECORD_SIZE) { throw new IllegalArgumentException("segmentSize must be at least "+RECORD_SIZE); }
+
+		this.dir = dir;
+		this.segmentSize = segmentSize - segmentSize % RECORD_SIZE;
+		this.syncEveryWrite = syncEveryWrite;
+	}
+
+	public void open() throws IOException {
+
+		lock.writeLock().lock();
+		try {
+			if (open) { throw new IllegalStateException("already open"); }
+			if (!dir.isDirectory() && !dir.mkdirs()) { throw new IOException("can not create "+dir); }
+			lockDir();
+
+			File[] files = dir.listFiles((d,name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+			for (File file : files) {
+				int id = Integer.parseInt(file.getName().substring(PREFIX.length(), file.getName().length()-SUFFIX.length()));
+				long length = file.length() - file.length() % RECORD_SIZE;
+				segments.put(id, Segment.open(id, file, (0==length) ? segmentSize : (int)length));
+			}
+			for (Segment segment : segments.values()) {
+				replay(segment);
+			}
+
+			if (segments.isEmpty()) {
+				active = newSegment(0);
+			} else {
+				active = segments.lastEntry().getValue();
+				// nothing may follow the point appending resumes from
+				active.zeroFrom(active.numRecords);
+				// segments retired by a compaction that was cut short
+				List<Segment> empty = new ArrayList<Segment>();
+				for (Segment segment : segments.headMap(active.id).values()) {
+					if (0==segment.numRecords) { empty.add(segment); }
+				}
+				retire(empty);
+			}
+			open = true;
+
+			logger.info("opened result log {}: {} results, {} records in {} segments",
+					dir, index.size(), numRecords, segments.size());
+
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void replay(Segment segment) {
+
+		byte[] record = new byte[RECORD_SIZE];
+		int n = 0;
+		for (; n < segment.capacity; n++) {
+
+			segment.read(n, record);
+			if (0==record[0]) { break; } // never written
+			if (!isIntact(record)) {
+				logger.warn("{}: record {} is torn or corrupt - ignoring the rest of the segment",segment.file,n);
+				break;
+			}
+			if (PUT==record[0]) {
+				index.put(requestOf(record), location(segment.id, n));
+			} else if (DELETE==record[0]) {
+				index.remove(requestOf(record));
+			} else if (CLEAR==record[0]) {
+				index.clear();
+			}
+		}
+		segment.numRecords = n;
+		numRecords += n;
+	}
+
+	public void put(CalculationResult result) throws IOException {
+
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			index.put(result.getRequest(), append(recordOf(PUT, result)));
+			if (syncEveryWrite) { active.force(); }
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void putAll(Collection<CalculationResult> results) throws IOException {
+
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			for (CalculationResult result : results) {
+				index.put(result.getRequest(), append(recordOf(PUT, result)));
+			}
+			if (syncEveryWrite) { active.force(); }
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * appends a tombstone, if there is a result to delete
+	 * @return - whether there was
+	 */
+	public boolean remove(CalculationRequest request) throws IOException {
+
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			if (!index.containsKey(request)) { return false; }
+			append(recordOf(DELETE, request.getKey(), null, false));
+			index.remove(request);
+			if (syncEveryWrite) { active.force(); }
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * appends a clear record to a fresh segment, then retires all the others
+	 */
+	public void clear() throws IOException {
+
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			roll();
+			append(recordOf(CLEAR, RequestKey.valueOf(0,0L), null, false));
+			active.force();
+			index.clear();
+			retire(new ArrayList<Segment>(segments.headMap(active.id).values()));
+			numRecords = active.numRecords;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public CalculationResult get(CalculationRequest request) {
+
+		lock.readLock().lock();
+		try {
+			checkOpen();
+			Long location = index.get(request);
+			return (null==location) ? null : read(location);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param after - null to start from the first result
+	 * @return - up to limit results, in (shapeName, calcType, dimension) order
+	 */
+	public List<CalculationResult> getAfter(CalculationRequest after, int limit) {
+
+		lock.readLock().lock();
+		try {
+			checkOpen();
+			Map<CalculationRequest,Long> tail = (null==after) ? index : index.tailMap(after,false);
+			List<CalculationResult> page = new ArrayList<CalculationResult>(Math.min(limit,PAGE_SIZE));
+			for (Iterator<Long> locations = tail.values().iterator(); locations.hasNext() && page.size() < limit; ) {
+				page.add(read(locations.next()));
+			}
+			return page;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * hands every result to the consumer, a page at a time, so that
+	 * the log is not locked while the consumer runs
+	 * @return - the number of results consumed
+	 */
+	public long forEach(Consumer<CalculationResult> consumer) {
+
+		long count = 0;
+		CalculationRequest after = null;
+		List<CalculationResult> page;
+		do {
+			page = getAfter(after, PAGE_SIZE);
+			for (CalculationResult result : page) {
+				consumer.accept(result);
+				after = result.getRequest();
+			}
+			count += page.size();
+		} while (page.size()==PAGE_SIZE);
+
+		return count;
+	}
+
+	/**
+	 * rewrites the live results into new segments, dropping the
+	 * superseded records and tombstones, once at least minDeadRatio
+	 * of all the records are dead
+	 * @return - whether it compacted
+	 */
+	public boolean compact(double minDeadRatio) throws IOException {
+
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			long numDead = numRecords - index.size();
+			if (0==numDead || numDead < minDeadRatio * numRecords) { return false; }
+
+			long start = System.nanoTime();
+			int numSegments = segments.size();
+
+			roll();
+			int firstNewId = active.id;
+
+			byte[] record = new byte[RECORD_SIZE];
+			NavigableMap<CalculationRequest,Long> compacted = new TreeMap<CalculationRequest,Long>(RequestOrder.INSTANCE);
+			for (Map.Entry<CalculationRequest,Long> entry : index.entrySet()) {
+				long location = entry.getValue();
+				segments.get(segmentOf(location)).read(recordOf(location), record);
+				compacted.put(entry.getKey(), append(record));
+			}
+			for (Segment segment : segments.tailMap(firstNewId).values()) {
+				segment.force();
+			}
+			index = compacted;
+			retire(new ArrayList<Segment>(segments.headMap(firstNewId).values()));
+			numRecords = index.size();
+
+			logger.info("compacted result log {}: {} dead records dropped, {} segments down to {}, in {} ms",
+					dir, numDead, numSegments, segments.size(), (System.nanoTime()-start)/1000000);
+			return true;
+
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * forces everything appended so far to disk
+	 */
+	public void sync() {
+
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			active.force();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		lock.writeLock().lock();
+		try {
+			if (!open) { return; }
+			open = false;
+			active.force();
+			for (Segment segment : segments.values()) {
+				segment.close();
+			}
+			segments.clear();
+			index.clear();
+			lockChannel.close(); // releases the lock
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public int size() {
+
+		lock.readLock().lock();
+		try {
+			return index.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/** records in the log, live or not */
+	public long getNumRecords() {
+
+		lock.readLock().lock();
+		try {
+			return numRecords;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public int getNumSegments() {
+
+		lock.readLock().lock();
+		try {
+			return segments.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private void lockDir() throws IOException {
+
+		lockChannel = new RandomAccessFile(new File(dir, "LOCK"), "rw").getChannel();
+		FileLock fileLock;
+		try {
+			fileLock = lockChannel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			fileLock = null; // held elsewhere in this JVM
+		}
+		if (null==fileLock) {
+			lockChannel.close();
+			throw new IOException(dir+" is in use by another result log");
+		}
+	}
+
+	private void checkOpen() {
+		if (!open) { throw new IllegalStateException("result log "+dir+" is not open"); }
+	}
+
+	private long append(byte[] record) throws IOException {
+
+		if (active.numRecords == active.capacity) { roll(); }
+
+		int n = active.numRecords++;
+		active.write(n, record);
+		numRecords++;
+		return location(active.id, n);
+	}
+
+	private void roll() throws IOException {
+		active.force();
+		active = newSegment(active.id + 1);
+	}
+
+	private Segment newSegment(int id) throws IOException {
+
+		Segment segment = Segment.open(id, new File(dir, String.format("%s%010d%s", PREFIX, id, SUFFIX)), segmentSize);
+		segments.put(id, segment);
+		return segment;
+	}
+
+	private void retire(List<Segment> retired) throws IOException {
+
+		for (Segment segment : retired) { // oldest first
+			segment.write(0, new byte[RECORD_SIZE]);
+			segment.force();
+			segment.close();
+			segments.remove(segment.id);
+			if (!segment.file.delete()) {
+				logger.warn("could not delete {} - it is empty and will be removed on a later open",segment.file);
+			}
+		}
+	}
+
+	private CalculationResult read(long location) {
+
+		byte[] record = new byte[RECORD_SIZE];
+		segments.get(segmentOf(location)).read(recordOf(location), record);
+
+		CalculationResult result = new CalculationResult(requestOf(record));
+		ByteBuffer b = ByteBuffer.wrap(record);
+		if (0!=(record[1] & HAS_RESULT)) { result.setResult(Double.longBitsToDouble(b.getLong(16))); }
+		result.setError(0!=(record[1] & ERROR));
+		return result;
+	}
+
+	private static byte[] recordOf(byte type, CalculationResult result) {
+		return recordOf(type, result.getKey(), result.getResult(), result.isError());
+	}
+
+	private static byte[] recordOf(byte type, RequestKey key, Double result, boolean error) {
+
+		byte[] record = new byte[RECORD_SIZE];
+		ByteBuffer b = ByteBuffer.wrap(record);
+		b.put(type)
+			.put((byte)((error ? ERROR : 0) | (null!=result ? HAS_RESULT : 0)))
+			.putShort((short)0)
+			.putInt(key.getKind())
+			.putLong(key.getDimensionBits())
+			.putLong((null==result) ? 0L : Double.doubleToRawLongBits(result));
+		b.putInt(CRC_OFFSET, checksum(record));
+		return record;
+	}
+
+	private static CalculationRequest requestOf(byte[] record) {
+		ByteBuffer b = ByteBuffer.wrap(record);
+		return RequestKey.valueOf(b.getInt(4), b.getLong(8)).toRequest();
+	}
+
+	private static boolean isIntact(byte[] record) {
+		return ByteBuffer.wrap(record).getInt(CRC_OFFSET) == checksum(record);
+	}
+
+	private static int checksum(byte[] record) {
+		CRC32 crc = new CRC32();
+		crc.update(record, 0, CRC_OFFSET);
+		return (int)crc.getValue();
+	}
+
+	private static long location(int segmentId, int n) {
+		return ((long)segmentId << 32) | n;
+	}
+
+	private static int segmentOf(long location) {
+		return (int)(location >>> 32);
+	}
+
+	private static int recordOf(long location) {
+		return (int)location;
+	}
+
+	/**
+	 * one memory-mapped segment file, addressed by record number
+	 */
+	private static final class Segment {
+
+		final int id;
+		final File file;
+		final FileChannel channel;
+		final MappedByteBuffer buffer;
+		final int capacity;
+		int numRecords;
+
+		private Segment(int id, File file, FileChannel channel, MappedByteBuffer buffer) {
+			this.id = id;
+			this.file = file;
+			this.channel = channel;
+			this.buffer = buffer;
+			this.capacity = buffer.capacity() / RECORD_SIZE;
+		}
+
+		static Segment open(int id, File file, int size) throws IOException {
+
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				if (raf.length() < size) { raf.setLength(size); } // zero filled
+				FileChannel channel = raf.getChannel();
+				return new Segment(id, file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+			} catch (IOException e) {
+				raf.close();
+				throw e;
+			}
+		}
+
+		// duplicates, so that concurrent readers do not share a position
+
+		void read(int n, byte[] record) {
+			ByteBuffer b = buffer.duplicate();
+			b.position(n * RECORD_SIZE);
+			b.get(record);
+		}
+
+		void write(int n, byte[] record) {
+			ByteBuffer b = buffer.duplicate();
+			b.position(n * RECORD_SIZE);
+			b.put(record);
+		}
+
+		void zeroFrom(int n) {
+			for (int i = n * RECORD_SIZE; i < capacity * RECORD_SIZE; i += 8) {
+				if (0!=buffer.getLong(i)) { buffer.putLong(i, 0L); }
+			}
+		}
+
+		void force() {
+			buffer.force();
+		}
+
+		void close() throws IOException {
+			channel.close(); // the mapping stays valid until it is garbage collected
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package com.eli.calc.shape.persistence.migration;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.eli.calc.shape.domain.RequestKey;
+import com.eli.calc.shape.model.CalcType;
+import com.eli.calc.shape.model.ShapeName;
+
+/**
+ * Converts PENDING_REQUESTS and CALCULATION_RESULTS from the
+ * (shapename, calctype, dimension) primary key to the compact
+ * (calckind, dimensionbits) key of orm-compact-keys.xml.
+ * 
+ * Must run before Hibernate sees the schema. Tables that do not exist yet
+ * (Hibernate will create them) or that already have the compact key are skipped,
+ * so it is safe to leave enabled.
+ */
+public class CompactKeyMigration {
+
+	private static final Logger logger = LoggerFactory.getLogger(CompactKeyMigration.class);
+
+	private static final String[] TABLES = { "PENDING_REQUESTS", "CALCULATION_RESULTS" };
+
+	private static final int BATCH_SIZE = 1000;
+
+	private final JdbcTemplate jdbc;
+
+	public CompactKeyMigration(DataSource dataSource) {
+		this.jdbc = new JdbcTemplate(dataSource);
+	}
+
+	public void migrate() {
+		for (String table : TABLES) {
+			migrateTable(table);
+		}
+	}
+
+	private void migrateTable(String table) {
+
+		List<String> columns = getColumnNames(table);
+
+		if (columns.isEmpty()) {
+			logger.debug("{} does not exist yet - nothing to migrate",table);
+			return;
+		}
+		if (columns.contains("CALCKIND")) {
+			logger.debug("{} already has the compact key",table);
+			return;
+		}
+
+		logger.info("migrating {} to the compact key",table);
+
+		jdbc.execute("alter table "+table+" add column calckind integer");
+		jdbc.execute("alter table "+table+" add column dimensionbits bigint");
+
+		// the kind only depends on the two enum columns ...
+		List<Object[]> kinds = new ArrayList<Object[]>();
+		for (ShapeName shapeName : ShapeName.values()) {
+			for (CalcType calcType : CalcType.values()) {
+				kinds.add(new Object[] { RequestKey.of(shapeName,calcType,0.0).getKind(), shapeName.name(), calcType.name() });
+			}
+		}
+		jdbc.batchUpdate("update "+table+" set calckind = ? where shapename = ? and calctype = ?",kinds);
+
+		// ... but the raw double bits can not be computed in SQL, so go through the distinct dimensions here
+		List<Object[]> bits = new ArrayList<Object[]>(BATCH_SIZE);
+		for (Double dimension : jdbc.queryForList("select distinct dimension from "+table,Double.class)) {
+			bits.add(new Object[] { Double.doubleToLongBits(dimension), dimension });
+			if (bits.size()>=BATCH_SIZE) {
+				jdbc.batchUpdate("update "+table+" set dimensionbits = ? where dimension = ?",bits);
+				bits.clear();
+			}
+		}
+		if (!bits.isEmpty()) {
+			jdbc.batchUpdate("update "+table+" set dimensionbits = ? where dimension = ?",bits);
+		}
+
+		if (isMySql()) {
+			jdbc.execute("alter table "+table+" modify calckind integer not null");
+			jdbc.execute("alter table "+table+" modify dimensionbits bigint not null");
+		} else {
+			jdbc.execute("alter table "+table+" alter column calckind set not null");
+			jdbc.execute("alter table "+table+" alter column dimensionbits set not null");
+		}
+
+		jdbc.execute("alter table "+table+" drop primary key");
+		jdbc.execute("alter table "+table+" add primary key (calckind, dimensionbits)");
+
+		logger.info("migrated {} to the compact key",table);
+	}
+
+	/**
+	 * @return - the (upper-cased) column names of the table, empty if there is no such table
+	 */
+	private List<String> getColumnNames(final String table) {
+
+		return jdbc.execute(new ConnectionCallback<List<String>>() {
+			@Override
+			public List<String> doInConnection(Connection connection) throws SQLException {
+
+				List<String> names = new ArrayList<String>();
+				DatabaseMetaData metaData = connection.getMetaData();
+
+				// table name case depends on the database, so try it as written and lower-cased
+				for (String name : new String[] { table, table.toLowerCase() }) {
+					ResultSet rs = metaData.getColumns(connection.getCatalog(), null, name, null);
+					try {
+						while (rs.next()) { names.add(rs.getString("COLUMN_NAME").toUpperCase()); }
+					} finally {
+						rs.close();
+					}
+					if (!names.isEmpty()) { break; }
+				}
+				return names;
+			}
+		});
+	}
+
+	private boolean isMySql() {
+
+		return jdbc.execute(new ConnectionCallback<Boolean>() {
+			@Override
+			public Boolean doInConnection(Connection connection) throws SQLException {
+				return connection.getMetaData().getDatabaseProductName().toLowerCase().contains("mysql");
+			}
+		});
+	}
+}
@@ -2,15 +2,47 @@ package com.eli.calc.shape.persistence.repository;
 
 import java.util.List;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.query.Param;
 
 import com.eli.calc.shape.domain.CalculationRequest;
+import com.eli.calc.shape.model.CalcType;
+import com.eli.calc.shape.model.ShapeName;
 
 //public interface CalculationRequestRepository extends PagingAndSortingRepository<CalculationRequest, Long> {
 public interface CalculationRequestRepository extends JpaRepository<CalculationRequest, Long> {
 
 	List<CalculationRequest> findAllByOrderByShapeNameAscCalcTypeAscDimensionAsc();
-	
+
+	List<CalculationRequest> findAllByOrderByShapeNameAscCalcTypeAscDimensionAsc(Pageable pageable);
+
+	/**
+	 * keyset ("seek") paging in (shapeName, calcType, dimension) order:
+	 * the rows that sort after the given key, at most pageable.getPageSize() of them
+	 * (pass page 0 - the position comes from the key, not from an offset)
+	 */
+	@Query("select r from CalculationRequest r where r.shapeName >= :shapeName and ("
+			+ " r.shapeName > :shapeName"
+			+ " or (r.shapeName = :shapeName and r.calcType > :calcType)"
+			+ " or (r.shapeName = :shapeName and r.calcType = :calcType and r.dimension > :dimension))"
+			+ " order by r.shapeName, r.calcType, r.dimension")
+	List<CalculationRequest> findPageAfter(
+			@Param("shapeName") ShapeName shapeName,
+			@Param("calcType") CalcType calcType,
+			@Param("dimension") Double dimension,
+			Pageable pageable
+			);
+
+	/**
+	 * pending requests that do not yet have a row in CALCULATION_RESULTS
+	 * (one anti-join, instead of a results lookup per pending request)
+	 * 
+	 * see the CalculationRequest.findAllUncalculated named query
+	 * (which orm-compact-keys.xml redefines against the compact key)
+	 */
+	List<CalculationRequest> findAllUncalculated();
 	
 }
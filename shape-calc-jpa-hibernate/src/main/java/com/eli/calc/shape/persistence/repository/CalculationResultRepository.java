@@ -1,22 +1,98 @@
 package com.eli.calc.shape.persistence.repository;
 
+import java.util.Collection;
 import java.util.List;
 
+import javax.persistence.QueryHint;
+
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.query.Param;
 
 import com.eli.calc.shape.domain.CalculationResult;
+import com.eli.calc.shape.domain.CalculationResultView;
 import com.eli.calc.shape.model.CalcType;
 import com.eli.calc.shape.model.ShapeName;
 
 //public interface CalculationResultRepository extends PagingAndSortingRepository<CalculationResult, Long> {
 public interface CalculationResultRepository extends JpaRepository<CalculationResult, Long> {
 
+	/**
+	 * marks the ordered result reads for the query cache (when persist.cache.enabled=true);
+	 * any change to the table makes Hibernate drop their cached pages
+	 */
+	String CACHEABLE = "org.hibernate.cacheable";
+
 	public CalculationResult findByShapeNameAndCalcTypeAndDimension(
 			ShapeName shapeName,
 			CalcType calcType,
 			double dimension
 			);
 
+	/**
+	 * one shape/calc type, many dimensions - an IN list on the key
+	 */
+	List<CalculationResult> findByShapeNameAndCalcTypeAndDimensionIn(
+			ShapeName shapeName,
+			CalcType calcType,
+			Collection<Double> dimensions
+			);
+
+	@QueryHints(@QueryHint(name=CACHEABLE, value="true"))
 	List<CalculationResult> findAllByOrderByShapeNameAscCalcTypeAscDimensionAsc();
+
+	@QueryHints(@QueryHint(name=CACHEABLE, value="true"))
+	List<CalculationResult> findAllByOrderByShapeNameAscCalcTypeAscDimensionAsc(Pageable pageable);
+
+	/**
+	 * keyset ("seek") paging in (shapeName, calcType, dimension) order:
+	 * the rows that sort after the given key, at most pageable.getPageSize() of them
+	 * (pass page 0 - the position comes from the key, not from an offset)
+	 */
+	@QueryHints(@QueryHint(name=CACHEABLE, value="true"))
+	@Query("select r from CalculationResult r where r.shapeName >= :shapeName and ("
+			+ " r.shapeName > :shapeName"
+			+ " or (r.shapeName = :shapeName and r.calcType > :calcType)"
+			+ " or (r.shapeName = :shapeName and r.calcType = :calcType and r.dimension > :dimension))"
+			+ " order by r.shapeName, r.calcType, r.dimension")
+	List<CalculationResult> findPageAfter(
+			@Param("shapeName") ShapeName shapeName,
+			@Param("calcType") CalcType calcType,
+			@Param("dimension") Double dimension,
+			Pageable pageable
+			);
+
+	/**
+	 * the same as findAllByOrderByShapeNameAscCalcTypeAscDimensionAsc(),
+	 * but as read-only views rather than entities
+	 */
+	@QueryHints(@QueryHint(name=CACHEABLE, value="true"))
+	@Query("select new com.eli.calc.shape.domain.CalculationResultView(r.shapeName, r.calcType, r.dimension, r.result, r.error)"
+			+ " from CalculationResult r order by r.shapeName, r.calcType, r.dimension")
+	List<CalculationResultView> findAllViews();
+
+	@QueryHints(@QueryHint(name=CACHEABLE, value="true"))
+	@Query("select new com.eli.calc.shape.domain.CalculationResultView(r.shapeName, r.calcType, r.dimension, r.result, r.error)"
+			+ " from CalculationResult r order by r.shapeName, r.calcType, r.dimension")
+	List<CalculationResultView> findAllViews(Pageable pageable);
+
+	/**
+	 * the same as findPageAfter(), but as read-only views rather than entities
+	 */
+	@QueryHints(@QueryHint(name=CACHEABLE, value="true"))
+	@Query("select new com.eli.calc.shape.domain.CalculationResultView(r.shapeName, r.calcType, r.dimension, r.result, r.error)"
+			+ " from CalculationResult r where r.shapeName >= :shapeName and ("
+			+ " r.shapeName > :shapeName"
+			+ " or (r.shapeName = :shapeName and r.calcType > :calcType)"
+			+ " or (r.shapeName = :shapeName and r.calcType = :calcType and r.dimension > :dimension))"
+			+ " order by r.shapeName, r.calcType, r.dimension")
+	List<CalculationResultView> findViewPageAfter(
+			@Param("shapeName") ShapeName shapeName,
+			@Param("calcType") CalcType calcType,
+			@Param("dimension") Double dimension,
+			Pageable pageable
+			);
 }
@@ -1,5 +1,6 @@
 package com.eli.calc.shape.persistence.service;
 
+import java.util.Collection;
 import java.util.List;
 
 import com.eli.calc.shape.domain.CalculationRequest;
@@ -10,9 +11,62 @@ public interface CalculationRequestPersistService {
 	
 	public void saveRequest(CalculationRequest request);
 
+	/**
+	 * inserts the request unless it is already pending, as one
+	 * statement (no lookup first, no merge); safe for concurrent callers
+	 * 
+	 * @return - whether it was inserted
+	 */
+	public boolean insertRequestIfAbsent(CalculationRequest request);
+
+	/**
+	 * saves all the requests in a single transaction,
+	 * letting the JDBC driver batch the statements.
+	 */
+	public void saveRequests(Collection<CalculationRequest> requests);
+
+	/**
+	 * inserts the requests that are not already pending, through a
+	 * stateless session (no persistence context) and JDBC batching,
+	 * all in one transaction. Duplicates are skipped, not failed.
+	 * 
+	 * @return - the number of requests inserted
+	 */
+	public int insertNewRequests(Collection<CalculationRequest> requests);
+
 	public List<CalculationRequest> getAllRequests();
+
+	/**
+	 * keyset paging, in (shapeName, calcType, dimension) order -
+	 * or, with persist.compact.keys=true, in primary key (calckind, dimensionbits) order
+	 * @param after - the last request of the previous page, null for the first page
+	 * @param limit - the most requests to return
+	 */
+	public List<CalculationRequest> getRequestsAfter(CalculationRequest after, int limit);
+
+	/**
+	 * @return - the pending requests for which
+	 * no result has been stored yet
+	 */
+	public List<CalculationRequest> getAllUncalculatedRequests();
+
+	/**
+	 * keyset paging through the uncalculated requests (anti-join and seek
+	 * in one query), in the order getAllUncalculatedRequests() returns them
+	 * @param after - the last request of the previous page, null for the first page
+	 * @param limit - the most requests to return
+	 */
+	public List<CalculationRequest> getUncalculatedRequestsAfter(CalculationRequest after, int limit);
 	
 	public void deleteRequest(CalculationRequest request);
 
+	/**
+	 * deletes all the requests in a single transaction,
+	 * letting the JDBC driver batch the statements.
+	 * 
+	 * @return - the number of requests deleted (those not pending are skipped)
+	 */
+	public int deleteRequests(Collection<CalculationRequest> requests);
+
 	public long getNumRequests();
 }
@@ -1,19 +1,69 @@
 package com.eli.calc.shape.persistence.service;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
 import com.eli.calc.shape.domain.CalculationRequest;
 import com.eli.calc.shape.domain.CalculationResult;
+import com.eli.calc.shape.domain.CalculationResultView;
 
 public interface CalculationResultPersistService {
 
+	/**
+	 * A result is stored once per request. Saving another for a request
+	 * that already has one differs by backend:
+	 * the jpa backend inserts, so it fails (on the primary key) and keeps the stored result;
+	 * the memory and log backends replace the stored result (the log's latest record wins).
+	 * The calculator never does it - a request is calculated by whoever claims it,
+	 * and a claimed request that turns out to have a result is not stored again.
+	 */
 	public void saveResult(CalculationResult result);
+
+	/**
+	 * saves all the results in a single transaction,
+	 * letting the JDBC driver batch the statements.
+	 * (see saveResult() for results whose request already has one)
+	 */
+	public void saveResults(Collection<CalculationResult> results);
 	
 	public void deleteResult(CalculationResult result);
 	
 	public void deleteAllResults();
 	
 	public List<CalculationResult> getAllResults();
+
+	/**
+	 * keyset paging, in (shapeName, calcType, dimension) order -
+	 * or, with persist.compact.keys=true, in primary key (calckind, dimensionbits) order
+	 * @param after - the request of the last result of the previous page, null for the first page
+	 * @param limit - the most results to return
+	 */
+	public List<CalculationResult> getResultsAfter(CalculationRequest after, int limit);
+
+	/**
+	 * read-only variants of getAllResults() and getResultsAfter():
+	 * projected straight from the rows, without loading entities
+	 */
+	public List<CalculationResultView> getAllResultViews();
+
+	public List<CalculationResultView> getResultViewsAfter(CalculationRequest after, int limit);
+
+	/**
+	 * hands every stored result, in no particular order, to the consumer,
+	 * reading them through a forward-only cursor so that memory use
+	 * does not grow with the size of the table.
+	 * 
+	 * The results are read-only and detached once consumed.
+	 * 
+	 * @return - the number of results consumed
+	 */
+	public long forEachResult(Consumer<CalculationResult> consumer);
 	
 	public CalculationResult findResultByRequest(CalculationRequest request);
+
+	/**
+	 * @return - the stored results of those of the requests that have one, in no particular order
+	 */
+	public List<CalculationResult> findResultsByRequests(Collection<CalculationRequest> requests);
 }
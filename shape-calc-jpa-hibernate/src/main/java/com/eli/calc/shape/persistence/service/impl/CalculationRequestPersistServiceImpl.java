@@ -1,25 +1,148 @@
 package com.eli.calc.shape.persistence.service.impl;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceUnit;
+import javax.persistence.TypedQuery;
+import javax.sql.DataSource;
+
+import org.hibernate.JDBCException;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.core.env.Environment;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 
+import com.eli.calc.shape.config.PersistBackendCondition;
 import com.eli.calc.shape.domain.CalculationRequest;
+import com.eli.calc.shape.domain.RequestKey;
+import com.eli.calc.shape.persistence.RequestIds;
 import com.eli.calc.shape.persistence.repository.CalculationRequestRepository;
 import com.eli.calc.shape.persistence.service.CalculationRequestPersistService;
+import com.eli.calc.shape.persistence.service.CalculationResultPersistService;
 
+/**
+ * Each method is one transaction (read-only for the reads) - except
+ * insertNewRequests, which runs its own on a stateless session.
+ */
 @Service
-public class CalculationRequestPersistServiceImpl implements CalculationRequestPersistService {
+@Conditional(PersistBackendCondition.Jpa.class)
+@Transactional(readOnly=true)
+public class CalculationRequestPersistServiceImpl implements CalculationRequestPersistService, InitializingBean {
 
 	private static final Logger logger = LoggerFactory.getLogger(CalculationRequestPersistServiceImpl.class);
 	
 	@Autowired
 	private CalculationRequestRepository repository;
 
+	@PersistenceUnit
+	private EntityManagerFactory entityManagerFactory;
+
+	@PersistenceContext
+	private EntityManager em;
+
+	@Autowired
+	private CalculationResultPersistService resultPersistService;
+
+	@Autowired
+	private Environment env;
+
+	@Autowired
+	private DataSource dataSource;
+
+	@Autowired
+	private RequestIds requestIds;
+
+	private JdbcTemplate jdbc;
+
+	private String insertIfAbsentSql;
+
+	//whether insertIfAbsentSql takes the key columns a second time (for its where clause)
+	private boolean insertIfAbsentRepeatsKey;
+
+	@Override
+	public void afterPropertiesSet() {
+		jdbc = new JdbcTemplate(dataSource);
+		insertIfAbsentSql = buildInsertIfAbsentSql();
+		logger.debug("insert-if-absent: {}",insertIfAbsentSql);
+	}
+
+	/**
+	 * MySQL: on duplicate key update, of a key column to itself - a no-op, counted as no row
+	 * (with useAffectedRows=true) - rather than insert ignore, which would also turn
+	 * every other error (bad or truncated values, say) into a warning;
+	 * PostgreSQL: on conflict do nothing;
+	 * anything else (H2 included): insert ... select ... where not exists,
+	 * where a concurrent insert of the same request shows up as a duplicate key
+	 */
+	private String buildInsertIfAbsentSql() {
+
+		String[] columns = requestIds.isCompactKeys()
+				? new String[] { "calckind", "dimensionbits", "shapename", "calctype", "dimension" }
+				: new String[] { "shapename", "calctype", "dimension" };
+		int numKeyColumns = requestIds.isCompactKeys() ? 2 : 3;
+
+		StringBuilder columnList = new StringBuilder();
+		StringBuilder params = new StringBuilder();
+		StringBuilder keyMatch = new StringBuilder();
+		for (int i = 0; i < columns.length; i++) {
+			columnList.append((i>0) ? ", " : "").append(columns[i]);
+			params.append((i>0) ? ", " : "").append("?");
+			if (i < numKeyColumns) { keyMatch.append((i>0) ? " and " : "").append(columns[i]).append(" = ?"); }
+		}
+
+		String dialect = env.getRequiredProperty("hibernate.dialect");
+		if (dialect.contains("MySQL")) {
+			return "insert into PENDING_REQUESTS ("+columnList+") values ("+params+")"
+					+ " on duplicate key update "+columns[0]+" = "+columns[0];
+		}
+		if (dialect.contains("PostgreSQL")) {
+			return "insert into PENDING_REQUESTS ("+columnList+") values ("+params+") on conflict do nothing";
+		}
+		insertIfAbsentRepeatsKey = true;
+		return "insert into PENDING_REQUESTS ("+columnList+") select "+params+" from dual"
+				+ " where not exists (select 1 from PENDING_REQUESTS where "+keyMatch+")";
+	}
+
+	private Object[] insertIfAbsentArgs(CalculationRequest request) {
+
+		RequestKey key = request.getKey();
+		Object[] row = requestIds.isCompactKeys()
+				? new Object[] { key.getKind(), key.getDimensionBits(), request.getShapeName().name(), request.getCalcType().name(), request.getDimension() }
+				: new Object[] { request.getShapeName().name(), request.getCalcType().name(), request.getDimension() };
+
+		if (insertIfAbsentRepeatsKey) {
+			int numKeyColumns = requestIds.isCompactKeys() ? 2 : 3;
+			Object[] args = new Object[row.length + numKeyColumns];
+			System.arraycopy(row, 0, args, 0, row.length);
+			System.arraycopy(row, 0, args, row.length, numKeyColumns);
+			return args;
+		}
+		return row;
+	}
+
 	@Override
+	@Transactional
 	public void saveRequest(CalculationRequest request) {
 		logger.debug("\n\nInside saveRequest\n\n");
 		//repository.save(request);
@@ -28,14 +151,203 @@ public class CalculationRequestPersistServiceImpl implements CalculationRequestP
 	}
 
 	@Override
+	@Transactional
+	public boolean insertRequestIfAbsent(CalculationRequest request) {
+		logger.debug("\n\nInside insertRequestIfAbsent\n\n");
+		try {
+			return 0 < jdbc.update(insertIfAbsentSql, insertIfAbsentArgs(request));
+		} catch (DuplicateKeyException e) {
+			return false; // inserted concurrently, between the check and the insert
+		}
+	}
+
+	@Override
+	@Transactional
+	public void saveRequests(Collection<CalculationRequest> requests) {
+		logger.debug("\n\nInside saveRequests ({})\n\n",requests.size());
+		if (requests.isEmpty()) { return; }
+		repository.save(requests);
+	}
+
+	@Override
+	@Transactional(propagation=Propagation.NOT_SUPPORTED)
+	public int insertNewRequests(Collection<CalculationRequest> requests) {
+		logger.debug("\n\nInside insertNewRequests ({})\n\n",requests.size());
+		if (requests.isEmpty()) { return 0; }
+
+		StatelessSession session = entityManagerFactory.unwrap(SessionFactory.class).openStatelessSession();
+		try {
+			List<CalculationRequest> newRequests = new ArrayList<CalculationRequest>(requests.size());
+			Set<RequestKey> pending = findPendingKeys(session, requests);
+			for (CalculationRequest request : requests) {
+				if (pending.add(request.getKey())) { newRequests.add(request); }
+			}
+
+			Transaction tx = session.beginTransaction();
+			try {
+				for (CalculationRequest request : newRequests) {
+					session.insert(request);
+				}
+				tx.commit(); // the batched inserts are executed here
+				return newRequests.size();
+
+			} catch (JDBCException e) {
+				// most likely a request queued concurrently since the check above
+				tx.rollback();
+				logger.debug("batch insert failed ({}) - inserting one at a time",e.getMessage());
+				return insertOneAtATime(session, newRequests);
+			}
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * @return - the keys of the given requests that are already pending
+	 */
+	private Set<RequestKey> findPendingKeys(StatelessSession session, Collection<CalculationRequest> requests) {
+
+		if (requestIds.isCompactKeys()) {
+			return findPendingCompactKeys(session, requests);
+		}
+
+		// one IN query per shape/calc type combination
+		Map<RequestKey,List<Double>> dimensionsByKind = new LinkedHashMap<RequestKey,List<Double>>();
+		for (CalculationRequest request : requests) {
+			RequestKey kind = RequestKey.of(request.getShapeName(),request.getCalcType(),0.0);
+			List<Double> dimensions = dimensionsByKind.get(kind);
+			if (null==dimensions) { dimensions = new ArrayList<Double>(); dimensionsByKind.put(kind,dimensions); }
+			dimensions.add(request.getDimension());
+		}
+
+		Set<RequestKey> pending = new HashSet<RequestKey>();
+		for (Map.Entry<RequestKey,List<Double>> entry : dimensionsByKind.entrySet()) {
+			RequestKey kind = entry.getKey();
+			@SuppressWarnings("unchecked")
+			List<Double> found = session.createQuery("select r.dimension from CalculationRequest r"
+					+ " where r.shapeName = :shapeName and r.calcType = :calcType and r.dimension in (:dimensions)")
+					.setParameter("shapeName", kind.getShapeName())
+					.setParameter("calcType", kind.getCalcType())
+					.setParameterList("dimensions", entry.getValue())
+					.list();
+			for (Double dimension : found) {
+				pending.add(RequestKey.of(kind.getShapeName(),kind.getCalcType(),dimension));
+			}
+		}
+		return pending;
+	}
+
+	/**
+	 * findPendingKeys() on the compact key: one IN query on the primary key per kind
+	 */
+	private Set<RequestKey> findPendingCompactKeys(StatelessSession session, Collection<CalculationRequest> requests) {
+
+		Map<Integer,List<Long>> dimensionBitsByKind = new LinkedHashMap<Integer,List<Long>>();
+		for (CalculationRequest request : requests) {
+			RequestKey key = request.getKey();
+			List<Long> dimensionBits = dimensionBitsByKind.get(key.getKind());
+			if (null==dimensionBits) { dimensionBits = new ArrayList<Long>(); dimensionBitsByKind.put(key.getKind(),dimensionBits); }
+			dimensionBits.add(key.getDimensionBits());
+		}
+
+		Set<RequestKey> pending = new HashSet<RequestKey>();
+		for (Map.Entry<Integer,List<Long>> entry : dimensionBitsByKind.entrySet()) {
+			@SuppressWarnings("unchecked")
+			List<Long> found = session.createQuery("select r.key.dimensionBits from CalculationRequest r"
+					+ " where r.key.kind = :kind and r.key.dimensionBits in (:dimensionBits)")
+					.setParameter("kind", entry.getKey())
+					.setParameterList("dimensionBits", entry.getValue())
+					.list();
+			for (Long dimensionBits : found) {
+				pending.add(RequestKey.valueOf(entry.getKey(),dimensionBits));
+			}
+		}
+		return pending;
+	}
+
+	private int insertOneAtATime(StatelessSession session, List<CalculationRequest> requests) {
+
+		int numInserted = 0;
+		for (CalculationRequest request : requests) {
+			Transaction tx = session.beginTransaction();
+			try {
+				session.insert(request);
+				tx.commit();
+				numInserted++;
+			} catch (JDBCException e) {
+				tx.rollback();
+				logger.debug("skipping duplicate {}",request);
+			}
+		}
+		return numInserted;
+	}
+
+	@Override
+	@Transactional
 	public void deleteRequest(CalculationRequest request) {
 		logger.debug("\n\nInside deleteRequest\n\n");
-		repository.delete(request);
-		
+		// keyed, as deleteRequests() - repository.delete() would merge (select) it first
+		deleteRequests(Collections.singletonList(request));
+	}
+
+	@Override
+	@Transactional
+	public int deleteRequests(Collection<CalculationRequest> requests) {
+		logger.debug("\n\nInside deleteRequests ({})\n\n",requests.size());
+		if (requests.isEmpty()) { return 0; }
+
+		int chunkSize = Integer.parseInt(env.getRequiredProperty("persist.lookup.chunk.size"));
+
+		// one keyed delete per shape/calc type, of at most chunkSize requests -
+		// rather than delete(Iterable), which merges (selects) each one first
+		Map<RequestKey,List<CalculationRequest>> requestsByKind = new LinkedHashMap<RequestKey,List<CalculationRequest>>();
+		for (CalculationRequest request : requests) {
+			RequestKey kind = RequestKey.of(request.getShapeName(),request.getCalcType(),0.0);
+			List<CalculationRequest> ofKind = requestsByKind.get(kind);
+			if (null==ofKind) { ofKind = new ArrayList<CalculationRequest>(); requestsByKind.put(kind,ofKind); }
+			ofKind.add(request);
+		}
+
+		int numDeleted = 0;
+		for (Map.Entry<RequestKey,List<CalculationRequest>> entry : requestsByKind.entrySet()) {
+			List<CalculationRequest> ofKind = entry.getValue();
+			for (int from = 0; from < ofKind.size(); from += chunkSize) {
+				numDeleted += deleteOfKind(entry.getKey(), ofKind.subList(from, Math.min(from + chunkSize, ofKind.size())));
+			}
+		}
+		logger.debug("{} of {} requests deleted",numDeleted,requests.size());
+		return numDeleted;
+	}
+
+	private int deleteOfKind(RequestKey kind, List<CalculationRequest> requests) {
+
+		if (requestIds.isCompactKeys()) {
+			List<Long> dimensionBits = new ArrayList<Long>(requests.size());
+			for (CalculationRequest request : requests) {
+				dimensionBits.add(request.getKey().getDimensionBits());
+			}
+			return em.createQuery("delete from CalculationRequest r"
+					+ " where r.key.kind = :kind and r.key.dimensionBits in (:dimensionBits)")
+					.setParameter("kind", kind.getKind())
+					.setParameter("dimensionBits", dimensionBits)
+					.executeUpdate();
+		}
+
+		List<Double> dimensions = new ArrayList<Double>(requests.size());
+		for (CalculationRequest request : requests) {
+			dimensions.add(request.getDimension());
+		}
+		return em.createQuery("delete from CalculationRequest r"
+				+ " where r.shapeName = :shapeName and r.calcType = :calcType and r.dimension in (:dimensions)")
+				.setParameter("shapeName", kind.getShapeName())
+				.setParameter("calcType", kind.getCalcType())
+				.setParameter("dimensions", dimensions)
+				.executeUpdate();
 	}
 
 
 	@Override
+	@Transactional
 	public void deleteAllRequests() {
 		logger.debug("\n\nInside deleteAllRequest\n\n");
 		repository.deleteAll();
@@ -45,11 +357,99 @@ public class CalculationRequestPersistServiceImpl implements CalculationRequestP
 	@Override
 	public List<CalculationRequest> getAllRequests() {
 		logger.debug("\n\nInside getAllPendingRequest\n\n");
+		if (requestIds.isCompactKeys()) {
+			return em.createNamedQuery("CalculationRequest.findAllInKeyOrder", CalculationRequest.class).getResultList();
+		}
 		List<CalculationRequest> source = repository.findAllByOrderByShapeNameAscCalcTypeAscDimensionAsc();
 		return source;
 	}
 
 
+	@Override
+	public List<CalculationRequest> getRequestsAfter(CalculationRequest after, int limit) {
+
+		if (requestIds.isCompactKeys()) {
+			// orm-compact-keys.xml pages on the primary key, (calckind, dimensionbits)
+			if (null==after) {
+				return em.createNamedQuery("CalculationRequest.findAllInKeyOrder", CalculationRequest.class)
+						.setMaxResults(limit)
+						.getResultList();
+			}
+			return em.createNamedQuery("CalculationRequest.findPageAfterKey", CalculationRequest.class)
+					.setParameter("kind", after.getKey().getKind())
+					.setParameter("dimensionBits", after.getKey().getDimensionBits())
+					.setMaxResults(limit)
+					.getResultList();
+		}
+		if (null==after) {
+			return repository.findAllByOrderByShapeNameAscCalcTypeAscDimensionAsc(new PageRequest(0,limit));
+		}
+		return repository.findPageAfter(after.getShapeName(), after.getCalcType(), after.getDimension(), new PageRequest(0,limit));
+	}
+
+
+	@Override
+	public List<CalculationRequest> getAllUncalculatedRequests() {
+		logger.debug("\n\nInside getAllUncalculatedRequests\n\n");
+		if (PersistBackendCondition.JPA.equals(PersistBackendCondition.getResultsBackend(env))) {
+			return repository.findAllUncalculated();
+		}
+
+		// the results are not in the database, so there is nothing to join against
+		List<CalculationRequest> uncalculated = new ArrayList<CalculationRequest>();
+		for (CalculationRequest request : getAllRequests()) {
+			if (null==resultPersistService.findResultByRequest(request)) { uncalculated.add(request); }
+		}
+		return uncalculated;
+	}
+
+
+	@Override
+	public List<CalculationRequest> getUncalculatedRequestsAfter(CalculationRequest after, int limit) {
+		logger.debug("\n\nInside getUncalculatedRequestsAfter\n\n");
+		if (!PersistBackendCondition.JPA.equals(PersistBackendCondition.getResultsBackend(env))) {
+			return filterUncalculatedAfter(after, limit);
+		}
+
+		if (null==after) {
+			return em.createNamedQuery("CalculationRequest.findAllUncalculated", CalculationRequest.class)
+					.setMaxResults(limit)
+					.getResultList();
+		}
+
+		// the named query seeks on whichever key the entity is mapped with
+		TypedQuery<CalculationRequest> query = em.createNamedQuery("CalculationRequest.findUncalculatedAfter", CalculationRequest.class);
+		if (requestIds.isCompactKeys()) {
+			query.setParameter("kind", after.getKey().getKind())
+				.setParameter("dimensionBits", after.getKey().getDimensionBits());
+		} else {
+			query.setParameter("shapeName", after.getShapeName())
+				.setParameter("calcType", after.getCalcType())
+				.setParameter("dimension", after.getDimension());
+		}
+		return query.setMaxResults(limit).getResultList();
+	}
+
+	/**
+	 * the results are not in the database: pages of pending requests,
+	 * each checked against the results, until limit are found
+	 */
+	private List<CalculationRequest> filterUncalculatedAfter(CalculationRequest after, int limit) {
+
+		List<CalculationRequest> uncalculated = new ArrayList<CalculationRequest>(Math.min(limit,1024));
+		while (uncalculated.size()<limit) {
+			List<CalculationRequest> page = getRequestsAfter(after, limit);
+			for (CalculationRequest request : page) {
+				if (uncalculated.size()>=limit) { break; }
+				if (null==resultPersistService.findResultByRequest(request)) { uncalculated.add(request); }
+			}
+			if (page.size()<limit) { break; }
+			after = page.get(page.size()-1);
+		}
+		return uncalculated;
+	}
+
+
 	@Override
 	public long getNumRequests() {
 		return repository.count();
@@ -1,19 +1,45 @@
 package com.eli.calc.shape.persistence.service.impl;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+
+import org.hibernate.CacheMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.core.env.Environment;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import com.eli.calc.shape.config.PersistBackendCondition;
 import com.eli.calc.shape.domain.CalculationRequest;
 import com.eli.calc.shape.domain.CalculationResult;
+import com.eli.calc.shape.domain.CalculationResultView;
+import com.eli.calc.shape.domain.RequestKey;
+import com.eli.calc.shape.persistence.RequestIds;
 import com.eli.calc.shape.persistence.repository.CalculationResultRepository;
 import com.eli.calc.shape.persistence.service.CalculationResultPersistService;
 
+/**
+ * Each method is one transaction: the reads read-only (no flush, no snapshots,
+ * and a read-only JDBC connection), the writes read-write.
+ */
 @Service
+@Conditional(PersistBackendCondition.JpaResults.class)
+@Transactional(readOnly=true)
 public class CalculationResultPersistServiceImpl implements CalculationResultPersistService {
 
 	private static final Logger logger = LoggerFactory.getLogger(CalculationResultPersistServiceImpl.class);
@@ -21,13 +47,38 @@ public class CalculationResultPersistServiceImpl implements CalculationResultPer
 	@Autowired
 	private CalculationResultRepository repository;
 
+	@PersistenceContext
+	private EntityManager em;
+
+	@Autowired
+	private RequestIds requestIds;
+
+	@Autowired
+	private Environment env;
+
+	/**
+	 * persisted, not saved: with an assigned id, save() would merge,
+	 * and so select each result before inserting it
+	 */
 	@Override
+	@Transactional
 	public void saveResult(CalculationResult result) {
 		
-		repository.save((CalculationResult)result);
+		em.persist(result);
 	}
 
 	@Override
+	@Transactional
+	public void saveResults(Collection<CalculationResult> results) {
+		
+		// inserted in jdbc batches when the transaction flushes
+		for (CalculationResult result : results) {
+			em.persist(result);
+		}
+	}
+
+	@Override
+	@Transactional
 	public void deleteResult(CalculationResult result) {
 		
 		repository.delete((CalculationResult)result);
@@ -35,24 +86,173 @@ public class CalculationResultPersistServiceImpl implements CalculationResultPer
 
 	@Override
 	public List<CalculationResult> getAllResults() {
+		if (requestIds.isCompactKeys()) {
+			return keyOrdered(CalculationResult.class, "CalculationResult.findAllInKeyOrder", null, Integer.MAX_VALUE);
+		}
 		List<CalculationResult> source = repository.findAllByOrderByShapeNameAscCalcTypeAscDimensionAsc();
 		return source;
 	}
 
 
+	@Override
+	public List<CalculationResult> getResultsAfter(CalculationRequest after, int limit) {
+
+		if (requestIds.isCompactKeys()) {
+			return (null==after)
+					? keyOrdered(CalculationResult.class, "CalculationResult.findAllInKeyOrder", null, limit)
+					: keyOrdered(CalculationResult.class, "CalculationResult.findPageAfterKey", after, limit);
+		}
+		if (null==after) {
+			return repository.findAllByOrderByShapeNameAscCalcTypeAscDimensionAsc(new PageRequest(0,limit));
+		}
+		return repository.findPageAfter(after.getShapeName(), after.getCalcType(), after.getDimension(), new PageRequest(0,limit));
+	}
+
+	@Override
+	public List<CalculationResultView> getAllResultViews() {
+		if (requestIds.isCompactKeys()) {
+			return keyOrdered(CalculationResultView.class, "CalculationResult.findAllViewsInKeyOrder", null, Integer.MAX_VALUE);
+		}
+		return repository.findAllViews();
+	}
+
+	@Override
+	public List<CalculationResultView> getResultViewsAfter(CalculationRequest after, int limit) {
+
+		if (requestIds.isCompactKeys()) {
+			return (null==after)
+					? keyOrdered(CalculationResultView.class, "CalculationResult.findAllViewsInKeyOrder", null, limit)
+					: keyOrdered(CalculationResultView.class, "CalculationResult.findViewPageAfterKey", after, limit);
+		}
+		if (null==after) {
+			return repository.findAllViews(new PageRequest(0,limit));
+		}
+		return repository.findViewPageAfter(after.getShapeName(), after.getCalcType(), after.getDimension(), new PageRequest(0,limit));
+	}
+
+	/**
+	 * the compact key's listings and keyset pages - named queries of orm-compact-keys.xml
+	 * that filter and sort on (calckind, dimensionbits), so they run on the primary key
+	 */
+	private <T> List<T> keyOrdered(Class<T> type, String queryName, CalculationRequest after, int limit) {
+
+		TypedQuery<T> query = em.createNamedQuery(queryName, type)
+				.setHint(CalculationResultRepository.CACHEABLE, true);
+		if (null!=after) {
+			query.setParameter("kind", after.getKey().getKind())
+				.setParameter("dimensionBits", after.getKey().getDimensionBits());
+		}
+		if (Integer.MAX_VALUE!=limit) { query.setMaxResults(limit); }
+		return query.getResultList();
+	}
+
+	@Override
+	public long forEachResult(Consumer<CalculationResult> consumer) {
+
+		int fetchSize = Integer.parseInt(env.getRequiredProperty("persist.stream.fetch.size"));
+		int clearInterval = Integer.parseInt(env.getRequiredProperty("persist.stream.clear.interval"));
+
+		if (0>clearInterval) { throw new IllegalArgumentException("persist.stream.clear.interval must be zero or positive"); }
+
+		Session session = em.unwrap(Session.class);
+		ScrollableResults cursor = session.createQuery("from CalculationResult")
+				.setReadOnly(true)
+				.setFetchSize(fetchSize)
+				.setCacheMode(CacheMode.IGNORE)
+				.scroll(ScrollMode.FORWARD_ONLY);
+
+		long count = 0;
+		try {
+			while (cursor.next()) {
+				consumer.accept((CalculationResult)cursor.get(0));
+				count++;
+				// drop what has been consumed, so the persistence context stays small
+				if (0 < clearInterval && 0 == count % clearInterval) { session.clear(); }
+			}
+		} finally {
+			cursor.close();
+		}
+
+		logger.debug("streamed {} results",count);
+		return count;
+	}
+
 	@Override
 	public CalculationResult findResultByRequest(CalculationRequest request) {
-		CalculationResult result = 
-				repository.findByShapeNameAndCalcTypeAndDimension( request.getShapeName(), request.getCalcType(), request.getDimension());
+		// primary key lookup, whichever key the entity is mapped with
+		CalculationResult result = em.find(CalculationResult.class, requestIds.idOf(request));
 
 		return result;
 	}
 
 	@Override
+	public List<CalculationResult> findResultsByRequests(Collection<CalculationRequest> requests) {
+
+		int chunkSize = Integer.parseInt(env.getRequiredProperty("persist.lookup.chunk.size"));
+
+		if (requestIds.isCompactKeys()) {
+			return findResultsByKeys(requests, chunkSize);
+		}
+
+		// one IN query per shape/calc type, of at most chunkSize dimensions
+		Map<RequestKey,List<Double>> dimensionsByKind = new LinkedHashMap<RequestKey,List<Double>>();
+		for (CalculationRequest request : requests) {
+			RequestKey kind = RequestKey.of(request.getShapeName(),request.getCalcType(),0.0);
+			List<Double> dimensions = dimensionsByKind.get(kind);
+			if (null==dimensions) { dimensions = new ArrayList<Double>(); dimensionsByKind.put(kind,dimensions); }
+			dimensions.add(request.getDimension());
+		}
+
+		List<CalculationResult> found = new ArrayList<CalculationResult>(requests.size());
+		for (Map.Entry<RequestKey,List<Double>> entry : dimensionsByKind.entrySet()) {
+			List<Double> dimensions = entry.getValue();
+			for (int from = 0; from < dimensions.size(); from += chunkSize) {
+				found.addAll(repository.findByShapeNameAndCalcTypeAndDimensionIn(
+						entry.getKey().getShapeName(), entry.getKey().getCalcType(),
+						dimensions.subList(from, Math.min(from + chunkSize, dimensions.size()))));
+			}
+		}
+		logger.debug("{} of {} results found",found.size(),requests.size());
+		return found;
+	}
+
+	/**
+	 * findResultsByRequests() on the compact key: one IN query on the
+	 * primary key per kind, of at most chunkSize dimension bits
+	 */
+	private List<CalculationResult> findResultsByKeys(Collection<CalculationRequest> requests, int chunkSize) {
+
+		Map<Integer,List<Long>> dimensionBitsByKind = new LinkedHashMap<Integer,List<Long>>();
+		for (CalculationRequest request : requests) {
+			RequestKey key = request.getKey();
+			List<Long> dimensionBits = dimensionBitsByKind.get(key.getKind());
+			if (null==dimensionBits) { dimensionBits = new ArrayList<Long>(); dimensionBitsByKind.put(key.getKind(),dimensionBits); }
+			dimensionBits.add(key.getDimensionBits());
+		}
+
+		List<CalculationResult> found = new ArrayList<CalculationResult>(requests.size());
+		for (Map.Entry<Integer,List<Long>> entry : dimensionBitsByKind.entrySet()) {
+			List<Long> dimensionBits = entry.getValue();
+			for (int from = 0; from < dimensionBits.size(); from += chunkSize) {
+				found.addAll(em.createQuery("select r from CalculationResult r"
+						+ " where r.key.kind = :kind and r.key.dimensionBits in (:dimensionBits)", CalculationResult.class)
+						.setParameter("kind", entry.getKey())
+						.setParameter("dimensionBits", dimensionBits.subList(from, Math.min(from + chunkSize, dimensionBits.size())))
+						.getResultList());
+			}
+		}
+		logger.debug("{} of {} results found",found.size(),requests.size());
+		return found;
+	}
+
+	@Override
+	@Transactional
 	public void deleteAllResults() {
 		
 		repository.deleteAll();
-		
+
+		// nothing cached may outlive the rows it came from
+		em.getEntityManagerFactory().getCache().evict(CalculationResult.class);
 	}
 
 }
@@ -0,0 +1,140 @@
+package com.eli.calc.shape.persistence.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.stereotype.Service;
+
+import com.eli.calc.shape.config.PersistBackendCondition;
+import com.eli.calc.shape.domain.CalculationRequest;
+import com.eli.calc.shape.persistence.RequestOrder;
+import com.eli.calc.shape.persistence.service.CalculationRequestPersistService;
+import com.eli.calc.shape.persistence.service.CalculationResultPersistService;
+
+/**
+ * Pending requests held in a concurrent skip list, in the same order
+ * the JPA implementation reads them. Nothing survives a restart.
+ * 
+ * Selected with persist.backend=memory.
+ */
+@Service
+@Conditional(PersistBackendCondition.Memory.class)
+public class InMemoryCalculationRequestPersistServiceImpl implements CalculationRequestPersistService {
+
+	private static final Logger logger = LoggerFactory.getLogger(InMemoryCalculationRequestPersistServiceImpl.class);
+
+	private final ConcurrentNavigableMap<CalculationRequest,CalculationRequest> requests =
+			new ConcurrentSkipListMap<CalculationRequest,CalculationRequest>(RequestOrder.INSTANCE);
+
+	@Autowired
+	private CalculationResultPersistService resultPersistService;
+
+	@Override
+	public void deleteAllRequests() {
+		requests.clear();
+	}
+
+	@Override
+	public void saveRequest(CalculationRequest request) {
+		CalculationRequest copy = copyOf(request);
+		requests.put(copy,copy);
+	}
+
+	@Override
+	public boolean insertRequestIfAbsent(CalculationRequest request) {
+		CalculationRequest copy = copyOf(request);
+		return null==requests.putIfAbsent(copy,copy);
+	}
+
+	@Override
+	public void saveRequests(Collection<CalculationRequest> requests) {
+		for (CalculationRequest request : requests) {
+			saveRequest(request);
+		}
+	}
+
+	@Override
+	public int insertNewRequests(Collection<CalculationRequest> requests) {
+		logger.debug("\n\nInside insertNewRequests ({})\n\n",requests.size());
+
+		int numInserted = 0;
+		for (CalculationRequest request : requests) {
+			CalculationRequest copy = copyOf(request);
+			if (null==this.requests.putIfAbsent(copy,copy)) { numInserted++; }
+		}
+		return numInserted;
+	}
+
+	@Override
+	public List<CalculationRequest> getAllRequests() {
+		return new ArrayList<CalculationRequest>(requests.keySet());
+	}
+
+	@Override
+	public List<CalculationRequest> getRequestsAfter(CalculationRequest after, int limit) {
+
+		Collection<CalculationRequest> tail = (null==after) ? requests.keySet() : requests.tailMap(after,false).keySet();
+
+		List<CalculationRequest> page = new ArrayList<CalculationRequest>(Math.min(limit,1024));
+		for (CalculationRequest request : tail) {
+			if (page.size()>=limit) { break; }
+			page.add(request);
+		}
+		return page;
+	}
+
+	@Override
+	public List<CalculationRequest> getAllUncalculatedRequests() {
+
+		List<CalculationRequest> uncalculated = new ArrayList<CalculationRequest>();
+		for (CalculationRequest request : requests.keySet()) {
+			if (null==resultPersistService.findResultByRequest(request)) { uncalculated.add(request); }
+		}
+		return uncalculated;
+	}
+
+	@Override
+	public List<CalculationRequest> getUncalculatedRequestsAfter(CalculationRequest after, int limit) {
+
+		Collection<CalculationRequest> tail = (null==after) ? requests.keySet() : requests.tailMap(after,false).keySet();
+
+		List<CalculationRequest> page = new ArrayList<CalculationRequest>(Math.min(limit,1024));
+		for (CalculationRequest request : tail) {
+			if (page.size()>=limit) { break; }
+			if (null==resultPersistService.findResultByRequest(request)) { page.add(request); }
+		}
+		return page;
+	}
+
+	@Override
+	public void deleteRequest(CalculationRequest request) {
+		requests.remove(request);
+	}
+
+	@Override
+	public int deleteRequests(Collection<CalculationRequest> requests) {
+		int numDeleted = 0;
+		for (CalculationRequest request : requests) {
+			if (null!=this.requests.remove(request)) { numDeleted++; }
+		}
+		return numDeleted;
+	}
+
+	@Override
+	public long getNumRequests() {
+		return requests.size();
+	}
+
+	// the map keys on the request's fields, so it keeps its own copy
+	// rather than one the caller could still change
+	private static CalculationRequest copyOf(CalculationRequest request) {
+		return new CalculationRequest(request.getShapeName(),request.getCalcType(),request.getDimension());
+	}
+}
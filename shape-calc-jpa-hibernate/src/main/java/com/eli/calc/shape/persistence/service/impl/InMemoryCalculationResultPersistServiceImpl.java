@@ -0,0 +1,133 @@
+package com.eli.calc.shape.persistence.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+
+import org.springframework.context.annotation.Conditional;
+import org.springframework.stereotype.Service;
+
+import com.eli.calc.shape.config.PersistBackendCondition;
+import com.eli.calc.shape.domain.CalculationRequest;
+import com.eli.calc.shape.domain.CalculationResult;
+import com.eli.calc.shape.domain.CalculationResultView;
+import com.eli.calc.shape.persistence.RequestOrder;
+import com.eli.calc.shape.persistence.service.CalculationResultPersistService;
+
+/**
+ * Calculated results held in a concurrent skip list keyed by their request,
+ * in the same order the JPA implementation reads them. Nothing survives a restart.
+ * 
+ * Selected with persist.backend=memory.
+ */
+@Service
+@Conditional(PersistBackendCondition.MemoryResults.class)
+public class InMemoryCalculationResultPersistServiceImpl implements CalculationResultPersistService {
+
+	private final ConcurrentNavigableMap<CalculationRequest,CalculationResult> results =
+			new ConcurrentSkipListMap<CalculationRequest,CalculationResult>(RequestOrder.INSTANCE);
+
+	@Override
+	public void saveResult(CalculationResult result) {
+		CalculationResult copy = copyOf(result);
+		results.put(copy.getRequest(),copy);
+	}
+
+	@Override
+	public void saveResults(Collection<CalculationResult> results) {
+		for (CalculationResult result : results) {
+			saveResult(result);
+		}
+	}
+
+	@Override
+	public void deleteResult(CalculationResult result) {
+		results.remove(result.getRequest());
+	}
+
+	@Override
+	public void deleteAllResults() {
+		results.clear();
+	}
+
+	@Override
+	public List<CalculationResult> getAllResults() {
+		return new ArrayList<CalculationResult>(results.values());
+	}
+
+	@Override
+	public List<CalculationResult> getResultsAfter(CalculationRequest after, int limit) {
+
+		Collection<CalculationResult> tail = (null==after) ? results.values() : results.tailMap(after,false).values();
+
+		List<CalculationResult> page = new ArrayList<CalculationResult>(Math.min(limit,1024));
+		for (CalculationResult result : tail) {
+			if (page.size()>=limit) { break; }
+			page.add(result);
+		}
+		return page;
+	}
+
+	@Override
+	public List<CalculationResultView> getAllResultViews() {
+		return viewsOf(results.values(), Integer.MAX_VALUE);
+	}
+
+	@Override
+	public List<CalculationResultView> getResultViewsAfter(CalculationRequest after, int limit) {
+
+		Collection<CalculationResult> tail = (null==after) ? results.values() : results.tailMap(after,false).values();
+		return viewsOf(tail, limit);
+	}
+
+	@Override
+	public long forEachResult(Consumer<CalculationResult> consumer) {
+
+		long count = 0;
+		for (CalculationResult result : results.values()) {
+			consumer.accept(result);
+			count++;
+		}
+		return count;
+	}
+
+	@Override
+	public CalculationResult findResultByRequest(CalculationRequest request) {
+		return results.get(request);
+	}
+
+	@Override
+	public List<CalculationResult> findResultsByRequests(Collection<CalculationRequest> requests) {
+
+		List<CalculationResult> found = new ArrayList<CalculationResult>(requests.size());
+		for (CalculationRequest request : requests) {
+			CalculationResult result = results.get(request);
+			if (null!=result) { found.add(result); }
+		}
+		return found;
+	}
+
+	private static List<CalculationResultView> viewsOf(Collection<CalculationResult> results, int limit) {
+
+		List<CalculationResultView> views = new ArrayList<CalculationResultView>();
+		for (CalculationResult result : results) {
+			if (views.size()>=limit) { break; }
+			views.add(new CalculationResultView(result.getShapeName(),result.getCalcType(),
+					result.getDimension(),result.getResult(),result.isError()));
+		}
+		return views;
+	}
+
+	// the map keys on the result's request fields, so it keeps its own copy
+	// rather than one the caller could still change
+	private static CalculationResult copyOf(CalculationResult result) {
+
+		CalculationResult copy = new CalculationResult(result.getRequest());
+		if (null!=result.getResult()) { copy.setResult(result.getResult()); }
+		copy.setError(result.isError());
+		return copy;
+	}
+}
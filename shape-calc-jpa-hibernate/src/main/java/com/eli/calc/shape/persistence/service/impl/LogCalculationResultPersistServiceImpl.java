@@ -0,0 +1,170 @@
+package com.eli.calc.shape.persistence.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import com.eli.calc.shape.config.PersistBackendCondition;
+import com.eli.calc.shape.domain.CalculationRequest;
+import com.eli.calc.shape.domain.CalculationResult;
+import com.eli.calc.shape.domain.CalculationResultView;
+import com.eli.calc.shape.persistence.log.ResultLog;
+import com.eli.calc.shape.persistence.service.CalculationResultPersistService;
+
+/**
+ * Calculated results kept in a ResultLog (an append-only, memory-mapped
+ * segment log) rather than in CALCULATION_RESULTS. Recovered from the
+ * log on startup; compacted in the background.
+ * 
+ * Selected with persist.results.backend=log.
+ */
+@Service
+@Conditional(PersistBackendCondition.LogResults.class)
+public class LogCalculationResultPersistServiceImpl implements CalculationResultPersistService, InitializingBean, DisposableBean {
+
+	private static final Logger logger = LoggerFactory.getLogger(LogCalculationResultPersistServiceImpl.class);
+
+	@Autowired
+	private Environment env;
+
+	private ResultLog log;
+
+	private ScheduledExecutorService compactor;
+
+	@Override
+	public void afterPropertiesSet() throws IOException {
+
+		log = new ResultLog(
+				new File(env.getRequiredProperty("persist.results.log.dir")),
+				Integer.parseInt(env.getRequiredProperty("persist.results.log.segment.size")),
+				Boolean.parseBoolean(env.getRequiredProperty("persist.results.log.sync")));
+		log.open();
+
+		final double compactRatio = Double.parseDouble(env.getRequiredProperty("persist.results.log.compact.ratio"));
+		long interval = Long.parseLong(env.getRequiredProperty("persist.results.log.compact.interval.ms"));
+
+		compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "result-log-compactor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		compactor.scheduleWithFixedDelay(() -> {
+			try {
+				log.compact(compactRatio);
+			} catch (Exception e) {
+				logger.error("result log compaction failed",e);
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void destroy() throws Exception {
+
+		compactor.shutdownNow();
+		compactor.awaitTermination(10, TimeUnit.SECONDS);
+		log.close();
+	}
+
+	@Override
+	public void saveResult(CalculationResult result) {
+		try {
+			log.put(result);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void saveResults(Collection<CalculationResult> results) {
+		try {
+			log.putAll(results);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void deleteResult(CalculationResult result) {
+		try {
+			log.remove(result.getRequest());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void deleteAllResults() {
+		try {
+			log.clear();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public List<CalculationResult> getAllResults() {
+		return log.getAfter(null, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public List<CalculationResult> getResultsAfter(CalculationRequest after, int limit) {
+		return log.getAfter(after, limit);
+	}
+
+	@Override
+	public List<CalculationResultView> getAllResultViews() {
+		return viewsOf(log.getAfter(null, Integer.MAX_VALUE));
+	}
+
+	@Override
+	public List<CalculationResultView> getResultViewsAfter(CalculationRequest after, int limit) {
+		return viewsOf(log.getAfter(after, limit));
+	}
+
+	@Override
+	public long forEachResult(Consumer<CalculationResult> consumer) {
+		return log.forEach(consumer);
+	}
+
+	@Override
+	public CalculationResult findResultByRequest(CalculationRequest request) {
+		return log.get(request);
+	}
+
+	@Override
+	public List<CalculationResult> findResultsByRequests(Collection<CalculationRequest> requests) {
+
+		List<CalculationResult> found = new ArrayList<CalculationResult>(requests.size());
+		for (CalculationRequest request : requests) {
+			CalculationResult result = log.get(request);
+			if (null!=result) { found.add(result); }
+		}
+		return found;
+	}
+
+	private static List<CalculationResultView> viewsOf(List<CalculationResult> results) {
+
+		List<CalculationResultView> views = new ArrayList<CalculationResultView>(results.size());
+		for (CalculationResult result : results) {
+			views.add(new CalculationResultView(result.getShapeName(),result.getCalcType(),
+					result.getDimension(),result.getResult(),result.isError()));
+		}
+		return views;
+	}
+}
@@ -1,21 +1,60 @@
 package com.eli.calc.shape.service;
 
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import com.eli.calc.shape.domain.CalculationRequest;
 import com.eli.calc.shape.domain.CalculationResult;
+import com.eli.calc.shape.domain.CalculationResultView;
 
 public interface CalculatedResults {
 
 	void deleteAllResults();
 	
+	/**
+	 * see CalculationResultPersistService.saveResult() for what
+	 * each backend does with a second result for the same request
+	 */
 	void putResult(CalculationResult result);
 	
+	void putResults(Collection<CalculationResult> results);
+
+	/**
+	 * write-behind version of pendingRequests.removeRequests(doneRequests)
+	 * followed by putResults(results): returns once they are queued.
+	 * containsRequest() sees the results straight away.
+	 * @param doneRequests - all the requests that were run, failed or not
+	 * @param results - the results of those that succeeded
+	 */
+	void putResultsBehind(Collection<CalculationRequest> doneRequests, Collection<CalculationResult> results);
+	
 	void removeResult(CalculationResult result);
 	
 	boolean containsRequest(CalculationRequest request);
+
+	/**
+	 * @return - every one of the requests, mapped to its result, or to null if it has none
+	 */
+	Map<CalculationRequest,CalculationResult> getResults(Collection<CalculationRequest> requests);
 	
 	List<CalculationResult> getResults();
 
+	/**
+	 * @param after - the request of the last result of the previous page, null for the first page
+	 */
+	List<CalculationResult> getResultsPage(CalculationRequest after, int pageSize);
+
+	List<CalculationResultView> getResultViews();
+
+	List<CalculationResultView> getResultViewsPage(CalculationRequest after, int pageSize);
+
+	/**
+	 * streams every result to the consumer in constant memory
+	 * @return - the number of results consumed
+	 */
+	long forEachResult(Consumer<CalculationResult> consumer);
+
 }
\ No newline at end of file
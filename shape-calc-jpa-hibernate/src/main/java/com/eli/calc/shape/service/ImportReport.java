@@ -0,0 +1,73 @@
+package com.eli.calc.shape.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of a bulk request import:
+ * every request read ends up in exactly one of the counts.
+ */
+public final class ImportReport {
+
+	private final long numRead;
+
+	private final long numImported;
+
+	private final long numDuplicates;
+
+	private final long numAlreadyCalculated;
+
+	private final long numInvalid;
+
+	private final long elapsedNanos;
+
+	public ImportReport(long numRead, long numImported, long numDuplicates, long numAlreadyCalculated, long numInvalid, long elapsedNanos) {
+		this.numRead = numRead;
+		this.numImported = numImported;
+		this.numDuplicates = numDuplicates;
+		this.numAlreadyCalculated = numAlreadyCalculated;
+		this.numInvalid = numInvalid;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/** requests taken from the source */
+	public long getNumRead() {
+		return numRead;
+	}
+
+	/** requests added to the pending queue */
+	public long getNumImported() {
+		return numImported;
+	}
+
+	/** requests already pending (or repeated in the source) */
+	public long getNumDuplicates() {
+		return numDuplicates;
+	}
+
+	/** requests that already have a result */
+	public long getNumAlreadyCalculated() {
+		return numAlreadyCalculated;
+	}
+
+	/** requests with a missing shape name/calc type or a negative dimension */
+	public long getNumInvalid() {
+		return numInvalid;
+	}
+
+	public long getElapsedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+	}
+
+	/** requests read per second */
+	public double getRowsPerSecond() {
+		return (0==elapsedNanos) ? 0.0 : numRead * 1e9 / elapsedNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "ImportReport [read=" + numRead + ", imported=" + numImported + ", duplicates=" + numDuplicates
+				+ ", alreadyCalculated=" + numAlreadyCalculated + ", invalid=" + numInvalid
+				+ ", elapsedMillis=" + getElapsedMillis() + ", rowsPerSecond=" + String.format("%.1f", getRowsPerSecond()) + "]";
+	}
+
+}
@@ -1,5 +1,6 @@
 package com.eli.calc.shape.service;
 
+import java.util.Collection;
 import java.util.List;
 
 import com.eli.calc.shape.domain.CalculationRequest;
@@ -9,11 +10,48 @@ public interface PendingRequests {
 	void deleteAllRequests();
 	
 	void putRequest(CalculationRequest request);
+
+	/**
+	 * @return - whether the request was added (false if it was already pending)
+	 */
+	boolean putRequestIfAbsent(CalculationRequest request);
+	
+	void putRequests(Collection<CalculationRequest> requests);
+
+	/**
+	 * @return - how many of the requests were new (not already pending) and were added
+	 */
+	int importRequests(Collection<CalculationRequest> requests);
 	
 	List<CalculationRequest> getRequests();
+
+	/**
+	 * @param after - the last request of the previous page, null for the first page
+	 */
+	List<CalculationRequest> getRequestsPage(CalculationRequest after, int pageSize);
+	
+	List<CalculationRequest> getUncalculatedRequests();
+
+	/**
+	 * @param after - the last request of the previous page, null for the first page
+	 */
+	List<CalculationRequest> getUncalculatedRequestsPage(CalculationRequest after, int pageSize);
 	
 	void removeRequest(CalculationRequest request);
+	
+	void removeRequests(Collection<CalculationRequest> requests);
 
+	/**
+	 * counts the pending requests (a query, with the database backend) -
+	 * and starts getApproximateNumRequests() over from that count
+	 */
 	long getNumRequests();
 
+	/**
+	 * the last getNumRequests(), plus what has been put and imported, less what
+	 * has been removed, through this instance since - without a query. Requests
+	 * put again, or queued by another process, make it drift until the next count.
+	 */
+	long getApproximateNumRequests();
+
 }
\ No newline at end of file
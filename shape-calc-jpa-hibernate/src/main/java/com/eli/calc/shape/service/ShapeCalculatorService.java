@@ -1,9 +1,15 @@
 package com.eli.calc.shape.service;
 
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import com.eli.calc.shape.domain.CalculationRequest;
 import com.eli.calc.shape.domain.CalculationResult;
+import com.eli.calc.shape.domain.CalculationResultView;
 import com.eli.calc.shape.model.CalcType;
 import com.eli.calc.shape.model.ShapeName;
 
@@ -22,6 +28,17 @@ public interface ShapeCalculatorService {
 	 * Attempting to queue another request with the same
 	 * param values will have no effect.
 	 * 
+	 * With calculator.enqueue.group.commit.enabled=true, concurrent
+	 * callers are committed together; each returns once its request
+	 * is committed.
+	 * 
+	 * A started dispatcher (see calculator.dispatcher.*) is woken
+	 * to run the request straight away.
+	 * 
+	 * With calculator.admission.enabled=true, and too many requests
+	 * pending or under way, this waits - or, as the policy says,
+	 * throws a RejectedExecutionException.
+	 * 
 	 * An IllegalArgumentException will be thrown
 	 * if any of the params do not meet criteria
 	 */
@@ -31,16 +48,111 @@ public interface ShapeCalculatorService {
 			double dimension
 			);
 	
+	/**
+	 * Calculates one request without queueing it: the calculation runs
+	 * on the executor, its result is stored, and then the future completes.
+	 * 
+	 * A request already calculated completes straight away, with the stored
+	 * result. Callers asking for the same request while it is being
+	 * calculated - here, by the dispatcher or by a run of the queue -
+	 * all get the same future.
+	 * 
+	 * @param shapeName - must not be null;
+	 * @param calcType  - must not be null;
+	 * @param dimension - must be greater than / equal to zero;
+	 * @return - the future result; it fails with an IllegalArgumentException
+	 *           if the shape can not calculate the request
+	 * 
+	 * An IllegalArgumentException will be thrown
+	 * if any of the params do not meet criteria
+	 */
+	CompletableFuture<CalculationResult> calculateAsync(
+			ShapeName shapeName,
+			CalcType calcType,
+			double dimension
+			);
+
+	/**
+	 * Queues a (large) number of requests in bulk.
+	 * 
+	 * Requests are read and inserted in batches, each batch committed
+	 * on its own. Invalid requests (see queueCalculationRequest),
+	 * requests already pending or repeated, and requests that already
+	 * have a result are counted and skipped - they do not stop the import.
+	 * 
+	 * Each batch is admitted as one queueCalculationRequest is; one that is
+	 * rejected ends the import, with the batches before it kept.
+	 * 
+	 * @param requests - must not be null; may be a stream's iterator()
+	 * @return - what happened to the requests read
+	 */
+	ImportReport importCalculationRequests(Iterator<CalculationRequest> requests);
+
 	/**
 	 * @return - the list of pending requests
 	 * (not yet run)
 	 */
 	List<CalculationRequest> getAllPendingRequests();
+
+	/**
+	 * Keyset paging through the pending requests,
+	 * in (shapeName, calcType, dimension) order.
+	 * Every page costs the same, however far in it is.
+	 * 
+	 * @param after    - the last request of the previous page,
+	 *                   or null for the first page
+	 * @param pageSize - must be greater than zero
+	 * @return - at most pageSize requests; fewer (or none) on the last page
+	 */
+	List<CalculationRequest> getPendingRequestsPage(CalculationRequest after, int pageSize);
 	
 	/**
 	 * @return - the list of results
 	 */
 	List<CalculationResult> getAllCalculatedResults();
+
+	/**
+	 * Looks up many results at once: from the cache where it can,
+	 * and otherwise in a few IN queries (one per shape/calc type,
+	 * of at most persist.lookup.chunk.size dimensions each).
+	 * 
+	 * @param requests - must not be null, nor contain null
+	 * @return - every requested key, in the order given, mapped to its
+	 *           result - or to null when it has not been calculated
+	 */
+	Map<CalculationRequest,CalculationResult> getCalculatedResults(Collection<CalculationRequest> requests);
+
+	/**
+	 * Keyset paging through the results,
+	 * in (shapeName, calcType, dimension) order.
+	 * 
+	 * @param after    - the request of the last result of the previous page
+	 *                   (CalculationResult.getRequest()), or null for the first page
+	 * @param pageSize - must be greater than zero
+	 * @return - at most pageSize results; fewer (or none) on the last page
+	 */
+	List<CalculationResult> getCalculatedResultsPage(CalculationRequest after, int pageSize);
+
+	/**
+	 * Read-only versions of getAllCalculatedResults() and getCalculatedResultsPage().
+	 * 
+	 * The views are projected straight from the query, so no entities
+	 * (and no dirty-checking snapshots of them) are created.
+	 * Prefer these for reporting reads.
+	 */
+	List<CalculationResultView> getAllCalculatedResultViews();
+
+	List<CalculationResultView> getCalculatedResultViewsPage(CalculationRequest after, int pageSize);
+
+	/**
+	 * Hands every result to the consumer, one at a time,
+	 * without holding the whole table in memory.
+	 * Prefer this over getAllCalculatedResults() for large tables.
+	 * 
+	 * @param consumer - must not be null; called in no particular order
+	 * @return - the number of results consumed
+	 */
+	long forEachCalculatedResult(Consumer<CalculationResult> consumer);
 	
 	/**
 	 * Runs the calculations of all pending requests
@@ -55,9 +167,29 @@ public interface ShapeCalculatorService {
 	 * this operation removes all pending requests
 	 * that existed at that instance in time.
 	 * 
+	 * The queue is drained in chunks of calculator.drain.chunk.size
+	 * requests, each run and committed (results stored, requests
+	 * removed) in one transaction before the next is fetched.
+	 * Requests already being calculated (by calculateAsync(), the
+	 * dispatcher, or a concurrent run) are left to that calculation.
+	 * 
 	 * @return - the number of Requests run
 	 */
 	int runAllPendingRequestsStopOnError();
 	int runAllPendingRequestsNoStopOnError();
+
+	/**
+	 * With write-behind (results.write.behind.enabled=true) a run
+	 * can return before all of its results are stored, and its
+	 * requests taken off the queue. This waits until they are.
+	 * 
+	 * The other operations of this service already see those results
+	 * (waiting for the write-behind to catch up where they have to, but not
+	 * failing on results it is still retrying), so this is only needed to
+	 * be sure the results are durable. Without write-behind it does nothing.
+	 * 
+	 * @throws IllegalStateException - if any of them could not be stored
+	 */
+	void flushResults();
 	
 }
\ No newline at end of file
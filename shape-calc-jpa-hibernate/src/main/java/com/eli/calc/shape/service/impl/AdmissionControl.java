@@ -0,0 +1,341 @@
+package com.eli.calc.shape.service.impl;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.eli.calc.shape.service.PendingRequests;
+
+/**
+ * Backpressure on queueing: once the pending requests, or the
+ * calculations under way, reach their high watermark, no more
+ * are admitted until both are back down to their low watermark.
+ * 
+ * Meanwhile, callers wait (BLOCK), wait at most maxWaitMillis
+ * (TIMED_WAIT) or are turned away at once (REJECT); those not
+ * admitted get a RejectedExecutionException.
+ * 
+ * Counting the pending requests is a query (a SELECT COUNT(*) over the
+ * whole table), so it is not done by the callers, nor often: every
+ * checkIntervalMillis a background thread only takes the number that
+ * PendingRequests keeps up as requests are queued, imported and dequeued
+ * (getApproximateNumRequests()), and every resyncIntervalMillis it counts
+ * them for real, to correct what that number has drifted by.
+ * While open, and both counts are below their high watermark, callers
+ * are admitted without taking a lock; only once it closes do they queue
+ * up on one, to wait for the check that opens it again.
+ */
+@ManagedResource(objectName="com.eli.calc.shape:type=AdmissionControl", description="Backpressure on queueing requests")
+public class AdmissionControl implements InitializingBean, DisposableBean {
+
+	private static final Logger logger = LoggerFactory.getLogger(AdmissionControl.class);
+
+	public enum Policy { BLOCK, TIMED_WAIT, REJECT }
+
+	private final boolean enabled;
+
+	private final Policy policy;
+
+	private final long pendingHighWatermark;
+	private final long pendingLowWatermark;
+
+	private final int inFlightHighWatermark;
+	private final int inFlightLowWatermark;
+
+	private final long maxWaitMillis;
+
+	private final long checkIntervalMillis;
+
+	private final long resyncIntervalMillis;
+
+	@Autowired
+	private PendingRequests pendingRequests;
+
+	@Autowired
+	private InFlightCalculations inFlight;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition opened = lock.newCondition();
+
+	// only changed holding the lock, read without it
+	private volatile boolean open = true;
+
+	// as last checked (or counted)
+	private volatile long numPending;
+
+	private ScheduledExecutorService checker;
+
+	private final AtomicInteger numWaiting = new AtomicInteger();
+	private final AtomicLong numAdmitted = new AtomicLong();
+	private final AtomicLong numRejected = new AtomicLong();
+	private final AtomicLong numWaited = new AtomicLong();
+	private final AtomicLong numClosed = new AtomicLong();
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+
+	public AdmissionControl(boolean enabled, Policy policy,
+			long pendingHighWatermark, long pendingLowWatermark,
+			int inFlightHighWatermark, int inFlightLowWatermark,
+			long maxWaitMillis, long checkIntervalMillis, long resyncIntervalMillis) {
+
+		if (null==policy) { throw new IllegalArgumentException("policy can not be null"); }
+		if (1>pendingHighWatermark || 0>pendingLowWatermark || pendingLowWatermark>pendingHighWatermark) {
+			throw new IllegalArgumentException("pending watermarks must be 0 <= low <= high, and high positive");
+		}
+		if (1>inFlightHighWatermark || 0>inFlightLowWatermark || inFlightLowWatermark>inFlightHighWatermark) {
+			throw new IllegalArgumentException("in flight watermarks must be 0 <= low <= high, and high positive");
+		}
+		if (0>maxWaitMillis) { throw new IllegalArgumentException("max wait must be zero or positive"); }
+		if (1>checkIntervalMillis) { throw new IllegalArgumentException("check interval must be positive"); }
+		if (1>resyncIntervalMillis) { throw new IllegalArgumentException("resync interval must be positive"); }
+
+		this.enabled = enabled;
+		this.policy = policy;
+		this.pendingHighWatermark = pendingHighWatermark;
+		this.pendingLowWatermark = pendingLowWatermark;
+		this.inFlightHighWatermark = inFlightHighWatermark;
+		this.inFlightLowWatermark = inFlightLowWatermark;
+		this.maxWaitMillis = maxWaitMillis;
+		this.checkIntervalMillis = checkIntervalMillis;
+		this.resyncIntervalMillis = resyncIntervalMillis;
+
+		logger.debug("admission control enabled={} policy={} pending={}/{} inFlight={}/{} maxWaitMillis={}",
+				enabled,policy,pendingLowWatermark,pendingHighWatermark,inFlightLowWatermark,inFlightHighWatermark,maxWaitMillis);
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+
+		if (!enabled) { return; }
+
+		count();
+		checker = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "admission-control");
+			thread.setDaemon(true);
+			return thread;
+		});
+		checker.scheduleWithFixedDelay(() -> quietly(this::check), checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+		checker.scheduleWithFixedDelay(() -> quietly(this::count), resyncIntervalMillis, resyncIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void destroy() {
+
+		if (null!=checker) { checker.shutdownNow(); }
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * returns once the caller may queue its requests - waiting first,
+	 * if need be, as the policy allows
+	 * 
+	 * @throws RejectedExecutionException - if not admitted
+	 */
+	public void admit() {
+
+		if (!enabled) { return; }
+
+		// the usual case: open, and staying so
+		if (open && !isOverHighWatermark()) {
+			numAdmitted.incrementAndGet();
+			return;
+		}
+
+		long start = System.nanoTime();
+		boolean waited = false;
+
+		lock.lock();
+		try {
+			while (!isOpen()) {
+
+				long waitNanos = waitNanosLeft(start);
+				if (0>=waitNanos) {
+					numRejected.incrementAndGet();
+					throw new RejectedExecutionException("request not admitted - "+numPending+" pending, "
+							+inFlight.getInFlightCount()+" in flight (policy "+policy+")");
+				}
+
+				if (!waited) { numWaiting.incrementAndGet(); }
+				waited = true;
+				// woken once a check opens it - or, as the calculations under
+				// way are not counted for us, to look at them again
+				opened.await(Math.min(waitNanos,TimeUnit.MILLISECONDS.toNanos(checkIntervalMillis)), TimeUnit.NANOSECONDS);
+			}
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} finally {
+			lock.unlock();
+			if (waited) {
+				numWaiting.decrementAndGet();
+				recordWait(System.nanoTime()-start);
+			}
+		}
+
+		numAdmitted.incrementAndGet();
+	}
+
+	/**
+	 * takes the pending requests as kept count of - no query - closing or
+	 * opening admission as need be (it is done every checkIntervalMillis in the background)
+	 */
+	@ManagedOperation(description="Check the pending requests, as kept count of, now")
+	public void check() {
+
+		update(pendingRequests.getApproximateNumRequests());
+	}
+
+	/**
+	 * counts the pending requests now - a query - closing or opening admission
+	 * as need be (it is done every resyncIntervalMillis in the background)
+	 */
+	@ManagedOperation(description="Count the pending requests now")
+	public void count() {
+
+		update(pendingRequests.getNumRequests());
+	}
+
+	private void update(long numPending) {
+
+		this.numPending = numPending;
+
+		if (open && !isOverHighWatermark()) { return; }
+
+		lock.lock();
+		try {
+			isOpen();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void quietly(Runnable checkOrCount) {
+
+		try {
+			checkOrCount.run();
+		} catch (RuntimeException e) {
+			// the last number stands until the next
+			logger.error("failed to check the pending requests",e);
+		}
+	}
+
+	private boolean isOverHighWatermark() {
+
+		return numPending>=pendingHighWatermark || inFlight.getInFlightCount()>=inFlightHighWatermark;
+	}
+
+	private long waitNanosLeft(long start) {
+
+		switch (policy) {
+		case REJECT:
+			return 0;
+		case TIMED_WAIT:
+			return TimeUnit.MILLISECONDS.toNanos(maxWaitMillis) - (System.nanoTime()-start);
+		default:
+			return Long.MAX_VALUE;
+		}
+	}
+
+	private void recordWait(long nanos) {
+
+		numWaited.incrementAndGet();
+		totalWaitNanos.addAndGet(nanos);
+		long max;
+		while ((max = maxWaitNanos.get())<nanos && !maxWaitNanos.compareAndSet(max,nanos)) { }
+	}
+
+	/**
+	 * closes at a high watermark, and opens again once both are at or below their low one
+	 * (call holding the lock)
+	 */
+	private boolean isOpen() {
+
+		long numPending = this.numPending;
+		int numInFlight = inFlight.getInFlightCount();
+
+		if (open && (numPending>=pendingHighWatermark || numInFlight>=inFlightHighWatermark)) {
+			open = false;
+			numClosed.incrementAndGet();
+			logger.warn("admission closed - {} pending, {} in flight",numPending,numInFlight);
+		} else if (!open && numPending<=pendingLowWatermark && numInFlight<=inFlightLowWatermark) {
+			open = true;
+			opened.signalAll();
+			logger.info("admission open - {} pending, {} in flight",numPending,numInFlight);
+		}
+		return open;
+	}
+
+	@ManagedAttribute(description="Whether queueing is admission controlled")
+	public boolean getEnabled() {
+		return enabled;
+	}
+
+	@ManagedAttribute(description="What happens to callers while admission is closed")
+	public String getPolicy() {
+		return policy.name();
+	}
+
+	@ManagedAttribute(description="Whether requests are being admitted")
+	public boolean getOpen() {
+		return open;
+	}
+
+	@ManagedAttribute(description="Pending requests, when last checked")
+	public long getPendingCount() {
+		return numPending;
+	}
+
+	@ManagedAttribute(description="Callers waiting to be admitted now")
+	public int getWaitingCount() {
+		return numWaiting.get();
+	}
+
+	@ManagedAttribute(description="Callers admitted")
+	public long getAdmittedCount() {
+		return numAdmitted.get();
+	}
+
+	@ManagedAttribute(description="Callers rejected")
+	public long getRejectedCount() {
+		return numRejected.get();
+	}
+
+	@ManagedAttribute(description="Callers that had to wait (admitted or not)")
+	public long getWaitedCount() {
+		return numWaited.get();
+	}
+
+	@ManagedAttribute(description="Times a high watermark closed admission")
+	public long getClosedCount() {
+		return numClosed.get();
+	}
+
+	@ManagedAttribute(description="Total milliseconds callers have waited")
+	public long getTotalWaitMillis() {
+		return totalWaitNanos.get() / 1000000L;
+	}
+
+	@ManagedAttribute(description="Longest milliseconds a caller has waited")
+	public long getMaxWaitMillis() {
+		return maxWaitNanos.get() / 1000000L;
+	}
+
+}
@@ -1,40 +1,263 @@
 package com.eli.calc.shape.service.impl;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.eli.calc.shape.domain.CalculationRequest;
 import com.eli.calc.shape.domain.CalculationResult;
+import com.eli.calc.shape.domain.CalculationResultView;
 import com.eli.calc.shape.persistence.service.CalculationResultPersistService;
 import com.eli.calc.shape.service.CalculatedResults;
 
 @Component
-public class CalculatedResultsImpl implements CalculatedResults {
+public class CalculatedResultsImpl implements CalculatedResults, InitializingBean {
 
 	@Autowired
 	private CalculationResultPersistService resultsPersistService;
+
+	//write-through: every change to the stored results is applied here as well
+	@Autowired
+	private ResultCache cache;
+
+	//added to before a result is stored, and cleared before results are deleted
+	@Autowired
+	private ResultBloomFilter filter;
+
+	//puts hold the read lock from adding to the filter until the result is stored
+	//(committed, inside a transaction); clearing the filter takes the write lock,
+	//so a clear can not fall between the two and leave a stored result out of it
+	private final ReadWriteLock filterLock = new ReentrantReadWriteLock();
+
+	//results queued to be stored; stored ones are flushed
+	//before anything that reads or deletes the stored results
+	@Autowired
+	private ResultWriteBehind writeBehind;
+
+	@Override
+	public void afterPropertiesSet() {
+		rebuildFilter();
+	}
+
+	public void rebuildFilter() {
+
+		if (!filter.isEnabled()) { return; }
+
+		filterLock.writeLock().lock();
+		try {
+			filter.clear();
+			resultsPersistService.forEachResult(result -> filter.put(result.getRequest()));
+		} finally {
+			filterLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return - whether the caller unlocks once stored; otherwise it is
+	 * unlocked when the surrounding transaction completes
+	 */
+	private boolean lockFilterForPut() {
+
+		filterLock.readLock().lock();
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) { return true; }
+
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCompletion(int status) {
+				filterLock.readLock().unlock();
+			}
+		});
+		return false;
+	}
 	
+	/**
+	 * waits until what was written behind has been tried - but does not fail on
+	 * what is being retried, as getUnflushed() still answers for it
+	 */
+	private void catchUpWriteBehind() {
+		try {
+			writeBehind.catchUp();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+
 	public void deleteAllResults() {
-		resultsPersistService.deleteAllResults();
+		filterLock.writeLock().lock();
+		try {
+			catchUpWriteBehind();
+			// or a retry could store them again, once the rest are deleted
+			writeBehind.discardRetrying();
+			filter.clear();
+			resultsPersistService.deleteAllResults();
+			cache.clear();
+		} finally {
+			filterLock.writeLock().unlock();
+		}
 	}
 
 	public void putResult(CalculationResult result) {
-		resultsPersistService.saveResult(result);
+		long generation = cache.getGeneration();
+		boolean unlock = lockFilterForPut();
+		try {
+			filter.put(result.getRequest());
+			resultsPersistService.saveResult(result);
+		} finally {
+			if (unlock) { filterLock.readLock().unlock(); }
+		}
+		cacheOnceStored(Collections.singletonList(result),generation);
+	}
+
+	public void putResults(Collection<CalculationResult> results) {
+		long generation = cache.getGeneration();
+		boolean unlock = lockFilterForPut();
+		try {
+			for (CalculationResult result : results) {
+				filter.put(result.getRequest());
+			}
+			resultsPersistService.saveResults(results);
+		} finally {
+			if (unlock) { filterLock.readLock().unlock(); }
+		}
+		cacheOnceStored(new ArrayList<CalculationResult>(results),generation);
+	}
+
+	/**
+	 * inside a transaction (a chunk of a run) the results are only stored
+	 * when it commits - and must not be cached if it rolls back instead
+	 */
+	private void cacheOnceStored(final List<CalculationResult> results, final long generation) {
+
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					for (CalculationResult result : results) {
+						cache.put(result,generation);
+					}
+				}
+			});
+			return;
+		}
+
+		for (CalculationResult result : results) {
+			cache.put(result,generation);
+		}
+	}
+
+	public void putResultsBehind(Collection<CalculationRequest> doneRequests, Collection<CalculationResult> results) {
+		// a clear flushes the write-behind first, so once submitted they are covered by it
+		filterLock.readLock().lock();
+		try {
+			for (CalculationResult result : results) {
+				filter.put(result.getRequest());
+			}
+			// not cached until stored - the write-behind answers for them until then
+			writeBehind.submit(doneRequests,results);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} finally {
+			filterLock.readLock().unlock();
+		}
 	}
 
 	public void removeResult(CalculationResult result) {
+		catchUpWriteBehind();
 		resultsPersistService.deleteResult(result);
+		final CalculationRequest request = result.getRequest();
+		cache.remove(request);
+
+		// inside a transaction the row is still readable by others until it commits
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int status) {
+					cache.remove(request);
+				}
+			});
+		}
 	}
 
 	public boolean containsRequest(CalculationRequest request) {
-		return (null!=resultsPersistService.findResultByRequest(request))?true:false;
+
+		if (!filter.mightContain(request)) { return false; }
+
+		if (null!=cache.get(request)) { return true; }
+
+		if (null!=writeBehind.getUnflushed(request)) { return true; }
+
+		long generation = cache.getGeneration();
+		CalculationResult result = resultsPersistService.findResultByRequest(request);
+		if (null==result) { return false; }
+
+		cache.put(result,generation);
+		return true;
+	}
+
+	public Map<CalculationRequest,CalculationResult> getResults(Collection<CalculationRequest> requests) {
+
+		Map<CalculationRequest,CalculationResult> results = new LinkedHashMap<CalculationRequest,CalculationResult>(requests.size() * 2);
+		List<CalculationRequest> lookups = new ArrayList<CalculationRequest>();
+
+		// answer what can be answered in memory, in the same order as containsRequest
+		for (CalculationRequest request : requests) {
+			CalculationResult result = null;
+			if (filter.mightContain(request)) {
+				result = cache.get(request);
+				if (null==result) { result = writeBehind.getUnflushed(request); }
+				if (null==result) { lookups.add(request); }
+			}
+			results.put(request,result);
+		}
+
+		if (!lookups.isEmpty()) {
+			long generation = cache.getGeneration();
+			for (CalculationResult result : resultsPersistService.findResultsByRequests(lookups)) {
+				results.put(result.getRequest(),result);
+				cache.put(result,generation);
+			}
+		}
+		return results;
 	}
 
 	public List<CalculationResult> getResults() {
+		catchUpWriteBehind();
 		return resultsPersistService.getAllResults();
 	}
 
+	public List<CalculationResult> getResultsPage(CalculationRequest after, int pageSize) {
+		catchUpWriteBehind();
+		return resultsPersistService.getResultsAfter(after, pageSize);
+	}
+
+	public List<CalculationResultView> getResultViews() {
+		catchUpWriteBehind();
+		return resultsPersistService.getAllResultViews();
+	}
+
+	public List<CalculationResultView> getResultViewsPage(CalculationRequest after, int pageSize) {
+		catchUpWriteBehind();
+		return resultsPersistService.getResultViewsAfter(after, pageSize);
+	}
+
+	public long forEachResult(Consumer<CalculationResult> consumer) {
+		catchUpWriteBehind();
+		return resultsPersistService.forEachResult(consumer);
+	}
+
 
 }
\ No newline at end of file
@@ -1,6 +1,9 @@
 package com.eli.calc.shape.service.impl;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,12 +21,23 @@ public class CalculatorSingleTask implements Callable<CalculationResult> {
 
 	private final CalculationRequest request;
 
+	//where the computing is done, once the wait is over; null for this thread
+	private final Executor computeExecutor;
+
 	
 	public CalculatorSingleTask(
 			ShapeCalculationsFactory shapeFactory,
 			CalculationRequest request) {
+		this(shapeFactory,request,null);
+	}
+
+	public CalculatorSingleTask(
+			ShapeCalculationsFactory shapeFactory,
+			CalculationRequest request,
+			Executor computeExecutor) {
 		this.shapeFactory = shapeFactory;
 		this.request = request;
+		this.computeExecutor = computeExecutor;
 	}
 	
 	
@@ -40,7 +54,8 @@ public class CalculatorSingleTask implements Callable<CalculationResult> {
 
 
 			EqualDimShapeCalculations shape = this.shapeFactory.createShapeCalculation(request.getShapeName(),request.getCalcType());
-			sr.setResult(shape.calculate(this.request.getDimension()));
+			shape.simulateLatency();
+			sr.setResult(compute(shape));
 
 		} catch (IllegalArgumentException e) {
 
@@ -58,5 +73,19 @@ public class CalculatorSingleTask implements Callable<CalculationResult> {
 	
 		return sr;
 	}
+
+	private double compute(EqualDimShapeCalculations shape) throws Exception {
+
+		double dimension = this.request.getDimension();
+		if (null==computeExecutor) { return shape.calculate(dimension); }
+
+		try {
+			return CompletableFuture.supplyAsync(() -> shape.calculate(dimension), computeExecutor).get();
+		} catch (ExecutionException e) {
+			// as if it had been computed on this thread
+			if (e.getCause() instanceof Exception) { throw (Exception)e.getCause(); }
+			throw e;
+		}
+	}
 	
 }
\ No newline at end of file
@@ -0,0 +1,103 @@
+package com.eli.calc.shape.service.impl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.eli.calc.shape.domain.CalculationRequest;
+import com.eli.calc.shape.domain.CalculationResult;
+import com.eli.calc.shape.domain.RequestKey;
+
+/**
+ * The calculations under way, each with the future of its result.
+ * 
+ * The first to claim a request owns its calculation, and must complete
+ * or fail it; everyone else asking for the same request meanwhile
+ * is handed the owner's future, so it is only calculated once.
+ * 
+ * Owners complete only once the result is stored: a request claimed
+ * after that finds the stored result, not a second calculation.
+ */
+@ManagedResource(objectName="com.eli.calc.shape:type=InFlightCalculations", description="Calculations under way")
+public class InFlightCalculations {
+
+	private final ConcurrentMap<RequestKey,CompletableFuture<CalculationResult>> inFlight =
+			new ConcurrentHashMap<RequestKey,CompletableFuture<CalculationResult>>();
+
+	private final AtomicLong numClaimed = new AtomicLong();
+	private final AtomicLong numShared = new AtomicLong();
+
+	/**
+	 * @param future - the future the caller will complete, if it gets the claim
+	 * @return - null if the caller now owns the calculation, or else
+	 *           the future of the one already under way
+	 */
+	public CompletableFuture<CalculationResult> claim(CalculationRequest request, CompletableFuture<CalculationResult> future) {
+
+		if (null==request) { throw new IllegalArgumentException("request can not be null"); }
+		if (null==future) { throw new IllegalArgumentException("future can not be null"); }
+
+		CompletableFuture<CalculationResult> underWay = inFlight.putIfAbsent(request.getKey(),future);
+		if (null==underWay) {
+			numClaimed.incrementAndGet();
+		} else {
+			numShared.incrementAndGet();
+		}
+		return underWay;
+	}
+
+	/**
+	 * @return - the future of the request's calculation, or null if none is under way
+	 */
+	public CompletableFuture<CalculationResult> get(CalculationRequest request) {
+
+		if (null==request) { throw new IllegalArgumentException("request can not be null"); }
+
+		return inFlight.get(request.getKey());
+	}
+
+	/**
+	 * releases the claim, then completes its future with the result
+	 */
+	public void complete(CalculationRequest request, CalculationResult result) {
+
+		CompletableFuture<CalculationResult> future = release(request);
+		if (null!=future) { future.complete(result); }
+	}
+
+	/**
+	 * releases the claim, then fails its future
+	 */
+	public void fail(CalculationRequest request, Throwable failure) {
+
+		CompletableFuture<CalculationResult> future = release(request);
+		if (null!=future) { future.completeExceptionally(failure); }
+	}
+
+	private CompletableFuture<CalculationResult> release(CalculationRequest request) {
+
+		if (null==request) { throw new IllegalArgumentException("request can not be null"); }
+
+		return inFlight.remove(request.getKey());
+	}
+
+	@ManagedAttribute(description="Calculations under way")
+	public int getInFlightCount() {
+		return inFlight.size();
+	}
+
+	@ManagedAttribute(description="Calculations claimed")
+	public long getClaimedCount() {
+		return numClaimed.get();
+	}
+
+	@ManagedAttribute(description="Requests handed the future of a calculation already under way")
+	public long getSharedCount() {
+		return numShared.get();
+	}
+
+}
@@ -1,6 +1,8 @@
 package com.eli.calc.shape.service.impl;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,27 +20,78 @@ public class PendingRequestsImpl implements PendingRequests {
 
 	@Autowired
 	private CalculationRequestPersistService requestsPersistService;
+
+	// getApproximateNumRequests() - negative until first counted
+	private final AtomicLong approximateNumRequests = new AtomicLong(-1);
 	
 	public void deleteAllRequests() {
 		logger.debug("\n\ndeleteAllRequests\n\n");
 		requestsPersistService.deleteAllRequests();
+		approximateNumRequests.set(0);
 	}
 
 	public List<CalculationRequest> getRequests() {
 		return requestsPersistService.getAllRequests();
 	}
 
+	public List<CalculationRequest> getRequestsPage(CalculationRequest after, int pageSize) {
+		return requestsPersistService.getRequestsAfter(after, pageSize);
+	}
+
+	public List<CalculationRequest> getUncalculatedRequests() {
+		return requestsPersistService.getAllUncalculatedRequests();
+	}
+
+	public List<CalculationRequest> getUncalculatedRequestsPage(CalculationRequest after, int pageSize) {
+		return requestsPersistService.getUncalculatedRequestsAfter(after, pageSize);
+	}
+
 	public void putRequest(CalculationRequest request) {
 		logger.debug("\n\nputRequest\n\n");
 		requestsPersistService.saveRequest(request);
+		counted(1); // or replaced - it is not known which
+	}
+
+	public boolean putRequestIfAbsent(CalculationRequest request) {
+		boolean added = requestsPersistService.insertRequestIfAbsent(request);
+		if (added) { counted(1); }
+		return added;
+	}
+
+	public void putRequests(Collection<CalculationRequest> requests) {
+		logger.debug("\n\nputRequests\n\n");
+		requestsPersistService.saveRequests(requests);
+		counted(requests.size());
+	}
+
+	public int importRequests(Collection<CalculationRequest> requests) {
+		int inserted = requestsPersistService.insertNewRequests(requests);
+		counted(inserted);
+		return inserted;
 	}
 
 	public void removeRequest(CalculationRequest request) {
 		requestsPersistService.deleteRequest(request);
+		counted(-1);
+	}
+
+	public void removeRequests(Collection<CalculationRequest> requests) {
+		counted(-requestsPersistService.deleteRequests(requests));
 	}
 
 	public long getNumRequests() {
-		return requestsPersistService.getNumRequests();
+		long numRequests = requestsPersistService.getNumRequests();
+		approximateNumRequests.set(numRequests);
+		return numRequests;
+	}
+
+	public long getApproximateNumRequests() {
+		long numRequests = approximateNumRequests.get();
+		return (0>numRequests) ? getNumRequests() : numRequests;
+	}
+
+	private void counted(long change) {
+		approximateNumRequests.updateAndGet(num -> (0>num) ? num : Math.max(0, num+change));
 	}
 
 
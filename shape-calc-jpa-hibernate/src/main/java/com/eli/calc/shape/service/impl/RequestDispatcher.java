@@ -0,0 +1,334 @@
+package com.eli.calc.shape.service.impl;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.eli.calc.shape.domain.CalculationRequest;
+import com.eli.calc.shape.domain.CalculationResult;
+import com.eli.calc.shape.service.PendingRequests;
+import com.eli.calc.shape.service.ShapeCalculatorService;
+
+/**
+ * Runs queued requests as they arrive, instead of waiting for
+ * a runAllPendingRequests*: one background thread walks the queue
+ * in key order, handing each request to calculateAsync(), with at
+ * most maxInFlight of them under way at once.
+ * 
+ * Queueing a request wakes it; idle, it looks again every
+ * pollIntervalMillis, for requests queued by another process.
+ * 
+ * Requests already under way (see InFlightCalculations) - whether
+ * dispatched earlier, by calculateAsync(), or by a run of the queue -
+ * are passed over, so none is calculated twice. So are those calculated
+ * and still to be written behind (see ResultWriteBehind): they stay queued
+ * until their results are stored, and answering them again, pass after
+ * pass, would only keep the dispatcher spinning.
+ */
+@ManagedResource(objectName="com.eli.calc.shape:type=RequestDispatcher", description="Continuous dispatcher of queued requests")
+public class RequestDispatcher implements InitializingBean, DisposableBean {
+
+	private static final Logger logger = LoggerFactory.getLogger(RequestDispatcher.class);
+
+	private final boolean autoStart;
+
+	private final int maxInFlight;
+
+	private final long pollIntervalMillis;
+
+	private final Semaphore permits;
+
+	@Autowired
+	private PendingRequests pendingRequests;
+
+	@Autowired
+	private InFlightCalculations inFlight;
+
+	@Autowired
+	private ResultWriteBehind writeBehind;
+
+	// the calculator wakes the dispatcher, so it is looked up on first use
+	@Autowired
+	@Lazy
+	private ShapeCalculatorService calculator;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition signalled = lock.newCondition();
+	private boolean signal;  // guarded by lock
+	private Thread worker;   // guarded by lock
+
+	private volatile boolean paused;
+
+	private final AtomicLong numDispatched = new AtomicLong();
+	private final AtomicLong numCompleted = new AtomicLong();
+	private final AtomicLong numFailed = new AtomicLong();
+	private final AtomicLong numSkipped = new AtomicLong();
+
+	public RequestDispatcher(boolean autoStart, int maxInFlight, long pollIntervalMillis) {
+
+		if (1>maxInFlight) { throw new IllegalArgumentException("max in flight must be positive"); }
+		if (1>pollIntervalMillis) { throw new IllegalArgumentException("poll interval must be positive"); }
+
+		this.autoStart = autoStart;
+		this.maxInFlight = maxInFlight;
+		this.pollIntervalMillis = pollIntervalMillis;
+		this.permits = new Semaphore(maxInFlight);
+
+		logger.debug("request dispatcher autoStart={} maxInFlight={} pollIntervalMillis={}",autoStart,maxInFlight,pollIntervalMillis);
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+
+		if (autoStart) { start(); }
+	}
+
+	@Override
+	public void destroy() throws Exception {
+
+		stop();
+	}
+
+	/**
+	 * starts (or, if paused, resumes) dispatching
+	 */
+	@ManagedOperation(description="Start dispatching queued requests")
+	public void start() {
+
+		lock.lock();
+		try {
+			paused = false;
+			if (null==worker) {
+				worker = new Thread(this::dispatch, "request-dispatcher");
+				worker.setDaemon(true);
+				worker.start();
+				logger.info("request dispatcher started");
+			}
+			signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * stops dispatching; the calculations already under way carry on
+	 */
+	@ManagedOperation(description="Stop dispatching queued requests")
+	public void stop() throws InterruptedException {
+
+		Thread stopping;
+		lock.lock();
+		try {
+			stopping = worker;
+			worker = null;
+		} finally {
+			lock.unlock();
+		}
+
+		if (null!=stopping) {
+			stopping.interrupt();
+			stopping.join();
+			logger.info("request dispatcher stopped");
+		}
+	}
+
+	@ManagedOperation(description="Dispatch no more requests until resumed")
+	public void pause() {
+
+		paused = true;
+	}
+
+	@ManagedOperation(description="Resume dispatching queued requests")
+	public void resume() {
+
+		paused = false;
+		wakeUp();
+	}
+
+	/**
+	 * there are new requests queued
+	 */
+	public void wakeUp() {
+
+		lock.lock();
+		try {
+			signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void signal() {
+
+		signal = true;
+		signalled.signalAll();
+	}
+
+	private boolean isWorker() {
+
+		lock.lock();
+		try {
+			return Thread.currentThread()==worker;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * waits to be woken up, or for the poll interval to pass
+	 */
+	private void awaitSignal() throws InterruptedException {
+
+		lock.lock();
+		try {
+			if (!signal) { signalled.await(pollIntervalMillis, TimeUnit.MILLISECONDS); }
+			signal = false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void dispatch() {
+
+		CalculationRequest after = null;
+		boolean dispatchedThisPass = false;
+		long failedBeforePass = numFailed.get();
+
+		while (isWorker()) {
+			try {
+				if (paused) {
+					awaitSignal();
+					continue;
+				}
+
+				// wait for room, without holding on to it
+				permits.acquire();
+				permits.release();
+
+				// enough to fill the free slots, even with the requests under way in the page
+				int free = permits.availablePermits();
+				int pageSize = free + inFlight.getInFlightCount();
+				List<CalculationRequest> page = pendingRequests.getUncalculatedRequestsPage(after, pageSize);
+
+				for (CalculationRequest request : page) {
+
+					if (paused) { break; }
+					after = request;
+
+					if (null!=inFlight.get(request) || null!=writeBehind.getUnflushed(request)) {
+						numSkipped.incrementAndGet();
+						continue;
+					}
+
+					permits.acquire();
+					numDispatched.incrementAndGet();
+					dispatchedThisPass = true;
+
+					CompletableFuture<CalculationResult> calculation;
+					try {
+						calculation = calculator.calculateAsync(request.getShapeName(), request.getCalcType(), request.getDimension());
+					} catch (RuntimeException e) {
+						// never under way, so nothing else gives its slot back
+						permits.release();
+						numFailed.incrementAndGet();
+						throw e;
+					}
+
+					calculation.whenComplete((result,failure) -> {
+						permits.release();
+						if (null==failure) {
+							numCompleted.incrementAndGet();
+						} else {
+							numFailed.incrementAndGet();
+							logger.error("dispatched "+request+" failed",failure);
+						}
+					});
+				}
+
+				if (!paused && page.size()<pageSize) {
+					// the end of the queue: back to the top, but first wait
+					// if the pass found nothing to do, or only failures
+					after = null;
+					if (!dispatchedThisPass || numFailed.get()!=failedBeforePass) { awaitSignal(); }
+					dispatchedThisPass = false;
+					failedBeforePass = numFailed.get();
+				}
+
+			} catch (InterruptedException e) {
+				// stopped - or, if not, the loop carries on
+			} catch (RuntimeException e) {
+				logger.error(e.getMessage(),e);
+				try {
+					awaitSignal();
+				} catch (InterruptedException ie) {
+					// as above
+				}
+			}
+		}
+	}
+
+	@ManagedAttribute(description="Whether the dispatcher is started")
+	public boolean getRunning() {
+		return isRunning();
+	}
+
+	public boolean isRunning() {
+
+		lock.lock();
+		try {
+			return null!=worker;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@ManagedAttribute(description="Whether the dispatcher is paused")
+	public boolean getPaused() {
+		return paused;
+	}
+
+	@ManagedAttribute(description="Most dispatched requests under way at once")
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	@ManagedAttribute(description="Dispatched requests under way now")
+	public int getInFlightCount() {
+		return maxInFlight - permits.availablePermits();
+	}
+
+	@ManagedAttribute(description="Requests dispatched")
+	public long getDispatchedCount() {
+		return numDispatched.get();
+	}
+
+	@ManagedAttribute(description="Dispatched requests calculated and stored")
+	public long getCompletedCount() {
+		return numCompleted.get();
+	}
+
+	@ManagedAttribute(description="Dispatched requests that failed")
+	public long getFailedCount() {
+		return numFailed.get();
+	}
+
+	@ManagedAttribute(description="Queued requests passed over, as already under way or waiting to be written behind")
+	public long getSkippedCount() {
+		return numSkipped.get();
+	}
+
+}
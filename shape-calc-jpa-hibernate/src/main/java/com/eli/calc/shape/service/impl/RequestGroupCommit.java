@@ -0,0 +1,248 @@
+package com.eli.calc.shape.service.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.eli.calc.shape.domain.CalculationRequest;
+import com.eli.calc.shape.service.PendingRequests;
+
+/**
+ * Group commit for concurrent enqueues: each caller of enqueue() hands
+ * its request to a committer thread and waits. The committer gathers
+ * whatever arrives within the window (up to the max batch size) and
+ * inserts it all in one transaction, then releases every caller in the
+ * batch - once their rows are committed, or with the failure if not.
+ * 
+ * One commit is then shared by all the producers that arrived together,
+ * at the cost of up to one window of extra latency each.
+ */
+@ManagedResource(objectName="com.eli.calc.shape:type=RequestGroupCommit", description="Group commit of queued requests")
+public class RequestGroupCommit implements InitializingBean, DisposableBean {
+
+	private static final Logger logger = LoggerFactory.getLogger(RequestGroupCommit.class);
+
+	private static final class Waiter {
+		final CalculationRequest request;
+		final CompletableFuture<Void> committed = new CompletableFuture<Void>();
+		Waiter(CalculationRequest request) {
+			this.request = request;
+		}
+	}
+
+	//queued by destroy(), to wake the committer
+	private static final Waiter STOP = new Waiter(null);
+
+	private final boolean enabled;
+
+	private final long windowNanos;
+
+	private final int maxBatchSize;
+
+	@Autowired
+	private PendingRequests pendingRequests;
+
+	private final BlockingQueue<Waiter> queue = new LinkedBlockingQueue<Waiter>();
+
+	private volatile boolean running;
+
+	private Thread committer;
+
+	private final AtomicLong numCommits = new AtomicLong();
+	private final AtomicLong numRequests = new AtomicLong();
+	private final AtomicLong numFailed = new AtomicLong();
+	private volatile long lastCommitNanos;
+	private volatile long maxCommitNanos;
+
+	public RequestGroupCommit(boolean enabled, long windowMicros, int maxBatchSize) {
+
+		if (0>windowMicros) { throw new IllegalArgumentException("window must be zero or positive"); }
+		if (1>maxBatchSize) { throw new IllegalArgumentException("max batch size must be positive"); }
+
+		this.enabled = enabled;
+		this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+		this.maxBatchSize = maxBatchSize;
+
+		logger.debug("request group commit enabled={} windowMicros={} maxBatchSize={}",enabled,windowMicros,maxBatchSize);
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+
+		if (!enabled) { return; }
+
+		running = true;
+		committer = new Thread(this::commitLoop, "request-group-commit");
+		committer.setDaemon(true);
+		committer.start();
+	}
+
+	@Override
+	public void destroy() throws InterruptedException {
+
+		if (!enabled) { return; }
+
+		running = false;
+		queue.put(STOP);
+		committer.join(TimeUnit.SECONDS.toMillis(30));
+
+		// callers that queued as it stopped would otherwise wait for ever
+		if (!committer.isAlive()) { failLeftOvers(); }
+	}
+
+	private void failLeftOvers() {
+
+		IllegalStateException stopped = new IllegalStateException("request group commit stopped before committing the request");
+		for (Waiter waiter = queue.poll(); null!=waiter; waiter = queue.poll()) {
+			waiter.committed.completeExceptionally(stopped);
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * queues the request (a no-op if it is already pending)
+	 * and returns once it has been committed
+	 */
+	public void enqueue(CalculationRequest request) {
+
+		if (!running) { throw new IllegalStateException("request group commit is not running"); }
+
+		Waiter waiter = new Waiter(request);
+		queue.add(waiter);
+
+		// stopped since the check above: the committer may have gone without it -
+		// if it is still queued, it was not taken, and never will be
+		if (!running && queue.remove(waiter)) {
+			throw new IllegalStateException("request group commit is not running");
+		}
+
+		try {
+			waiter.committed.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw (e.getCause() instanceof RuntimeException)
+					? (RuntimeException)e.getCause()
+					: new RuntimeException(e.getCause());
+		}
+	}
+
+	private void commitLoop() {
+
+		List<Waiter> batch = new ArrayList<Waiter>(maxBatchSize);
+
+		while (running || !queue.isEmpty()) {
+			try {
+				Waiter first = queue.take();
+				if (STOP!=first) { batch.add(first); }
+
+				// gather the callers that arrive within the window
+				long deadline = System.nanoTime() + windowNanos;
+				while (batch.size() < maxBatchSize) {
+					long wait = deadline - System.nanoTime();
+					Waiter next = (wait > 0) ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+					if (null==next) { break; }
+					if (STOP!=next) { batch.add(next); }
+				}
+
+				commit(batch);
+				batch.clear();
+
+			} catch (InterruptedException e) {
+				logger.warn("request group committer interrupted - carrying on");
+			}
+		}
+		logger.debug("request group committer stopped");
+	}
+
+	private void commit(List<Waiter> batch) {
+
+		if (batch.isEmpty()) { return; }
+
+		List<CalculationRequest> requests = new ArrayList<CalculationRequest>(batch.size());
+		for (Waiter waiter : batch) {
+			requests.add(waiter.request);
+		}
+
+		long start = System.nanoTime();
+		RuntimeException failure = null;
+		try {
+			// one transaction; requests already pending (or twice in the batch) are skipped
+			pendingRequests.importRequests(requests);
+		} catch (RuntimeException e) {
+			logger.error("group commit of "+batch.size()+" requests failed",e);
+			numFailed.addAndGet(batch.size());
+			failure = e;
+		}
+		long elapsed = System.nanoTime() - start;
+
+		numCommits.incrementAndGet();
+		numRequests.addAndGet(batch.size());
+		lastCommitNanos = elapsed;
+		if (elapsed > maxCommitNanos) { maxCommitNanos = elapsed; }
+
+		for (Waiter waiter : batch) {
+			if (null==failure) { waiter.committed.complete(null); }
+			else { waiter.committed.completeExceptionally(failure); }
+		}
+	}
+
+	@ManagedAttribute(description="Whether concurrent enqueues are committed together")
+	public boolean getEnabled() {
+		return enabled;
+	}
+
+	@ManagedAttribute(description="Callers waiting for the next commit")
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	@ManagedAttribute(description="Transactions committed")
+	public long getCommitCount() {
+		return numCommits.get();
+	}
+
+	@ManagedAttribute(description="Requests committed (or failed)")
+	public long getRequestCount() {
+		return numRequests.get();
+	}
+
+	@ManagedAttribute(description="Requests whose commit failed")
+	public long getFailedCount() {
+		return numFailed.get();
+	}
+
+	@ManagedAttribute(description="Average requests per transaction")
+	public double getAverageBatchSize() {
+		long commits = numCommits.get();
+		return (0==commits) ? 0.0 : (double)numRequests.get() / commits;
+	}
+
+	@ManagedAttribute(description="Time of the last commit, in milliseconds")
+	public double getLastCommitMillis() {
+		return lastCommitNanos / 1e6;
+	}
+
+	@ManagedAttribute(description="Longest commit, in milliseconds")
+	public double getMaxCommitMillis() {
+		return maxCommitNanos / 1e6;
+	}
+
+}
@@ -0,0 +1,178 @@
+package com.eli.calc.shape.service.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.eli.calc.shape.domain.CalculationRequest;
+import com.eli.calc.shape.domain.RequestKey;
+
+/**
+ * Probabilistic membership filter over the stored results.
+ * 
+ * mightContain() never answers false for a request that was added,
+ * so a false answer is a definite miss and the database lookup can be skipped.
+ * A true answer may be wrong (at roughly the configured rate) and must be checked.
+ * 
+ * Results can not be taken out of a bloom filter, so removed results
+ * simply stay as false positives until the next clear().
+ */
+@ManagedResource(objectName="com.eli.calc.shape:type=ResultBloomFilter", description="Calculated results membership filter")
+public class ResultBloomFilter {
+
+	private static final Logger logger = LoggerFactory.getLogger(ResultBloomFilter.class);
+
+	private final boolean enabled;
+
+	private final long expectedInsertions;
+
+	private final double falsePositiveRate;
+
+	private final long numBits;
+
+	private final int numHashes;
+
+	private final AtomicLongArray bits;
+
+	private final AtomicLong bitsSet = new AtomicLong();
+
+	private final AtomicLong definiteMisses = new AtomicLong();
+
+	public ResultBloomFilter(boolean enabled, long expectedInsertions, double falsePositiveRate) {
+
+		if (1>expectedInsertions) { throw new IllegalArgumentException("expected insertions must be positive"); }
+		if (0>=falsePositiveRate || 1<=falsePositiveRate) { throw new IllegalArgumentException("false positive rate must be between 0 and 1"); }
+
+		this.enabled = enabled;
+		this.expectedInsertions = expectedInsertions;
+		this.falsePositiveRate = falsePositiveRate;
+
+		// standard sizing: m = -n*ln(p)/(ln2)^2 bits and k = (m/n)*ln2 hashes
+		long m = (long)Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		this.numBits = Math.max(64, ((m + 63) / 64) * 64);
+		this.numHashes = Math.max(1, (int)Math.round((double)numBits / expectedInsertions * Math.log(2)));
+		this.bits = new AtomicLongArray(enabled ? (int)(numBits / 64) : 1);
+
+		logger.debug("bloom filter enabled={} bits={} hashes={}",enabled,numBits,numHashes);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void put(CalculationRequest request) {
+
+		if (!enabled) { return; }
+
+		long h1 = hash1(request);
+		long h2 = hash2(h1);
+		for (int i=0; i<numHashes; i++) {
+			setBit(index(h1 + i * h2));
+		}
+	}
+
+	/**
+	 * @return - false only if the request was never put;
+	 * always true when the filter is disabled
+	 */
+	public boolean mightContain(CalculationRequest request) {
+
+		if (!enabled) { return true; }
+
+		long h1 = hash1(request);
+		long h2 = hash2(h1);
+		for (int i=0; i<numHashes; i++) {
+			if (!getBit(index(h1 + i * h2))) {
+				definiteMisses.incrementAndGet();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void clear() {
+
+		for (int i=0; i<bits.length(); i++) {
+			bits.set(i, 0L);
+		}
+		bitsSet.set(0);
+	}
+
+	private long index(long combinedHash) {
+		return (combinedHash & Long.MAX_VALUE) % numBits;
+	}
+
+	private boolean getBit(long index) {
+		return 0 != (bits.get((int)(index >>> 6)) & (1L << index));
+	}
+
+	private void setBit(long index) {
+
+		int word = (int)(index >>> 6);
+		long mask = 1L << index;
+		long current;
+		do {
+			current = bits.get(word);
+			if (0 != (current & mask)) { return; }
+		} while (!bits.compareAndSet(word, current, current | mask));
+
+		bitsSet.incrementAndGet();
+	}
+
+	private static long hash1(CalculationRequest request) {
+
+		RequestKey key = request.getKey();
+		return mix(key.getDimensionBits() * 31 + key.getKind());
+	}
+
+	private static long hash2(long h1) {
+		return mix(h1 ^ 0x9E3779B97F4A7C15L) | 1L;
+	}
+
+	// splitmix64 finalizer
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	@ManagedAttribute(description="Whether the filter is consulted at all")
+	public boolean getEnabled() {
+		return enabled;
+	}
+
+	@ManagedAttribute(description="Number of results the filter was sized for")
+	public long getExpectedInsertions() {
+		return expectedInsertions;
+	}
+
+	@ManagedAttribute(description="False positive rate the filter was sized for")
+	public double getConfiguredFalsePositiveRate() {
+		return falsePositiveRate;
+	}
+
+	@ManagedAttribute(description="Size of the filter in bits")
+	public long getNumBits() {
+		return numBits;
+	}
+
+	@ManagedAttribute(description="Fraction of the bits that are set (0..1)")
+	public double getSaturation() {
+		return enabled ? (double)bitsSet.get() / numBits : 0.0;
+	}
+
+	@ManagedAttribute(description="False positive rate at the current saturation")
+	public double getEstimatedFalsePositiveRate() {
+		return Math.pow(getSaturation(), numHashes);
+	}
+
+	@ManagedAttribute(description="Lookups answered as a definite miss")
+	public long getDefiniteMissCount() {
+		return definiteMisses.get();
+	}
+
+}
@@ -0,0 +1,154 @@
+package com.eli.calc.shape.service.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.eli.calc.shape.domain.CalculationRequest;
+import com.eli.calc.shape.domain.CalculationResult;
+import com.eli.calc.shape.domain.RequestKey;
+
+/**
+ * Bounded, least-recently-used, in-process cache of calculated results.
+ * 
+ * Keyed on the compact RequestKey.
+ * Only results known to be stored are cached (there are no negative entries),
+ * so a hit can be trusted and a miss falls through to the database.
+ * 
+ * A max size of zero disables the cache.
+ */
+@ManagedResource(objectName="com.eli.calc.shape:type=ResultCache", description="Calculated results cache")
+public class ResultCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(ResultCache.class);
+
+	private final int maxSize;
+
+	private final Map<RequestKey,CalculationResult> entries;
+
+	//bumped on every clear() and remove(), so a put that raced with either can be dropped
+	private final AtomicLong generation = new AtomicLong();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public ResultCache(int maxSize) {
+
+		if (0>maxSize) { throw new IllegalArgumentException("cache max size must be zero or positive"); }
+
+		this.maxSize = maxSize;
+		this.entries = new LinkedHashMap<RequestKey,CalculationResult>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<RequestKey,CalculationResult> eldest) {
+				if (size()>ResultCache.this.maxSize) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+
+		logger.debug("result cache max size is {}",maxSize);
+	}
+
+	public boolean isEnabled() {
+		return maxSize>0;
+	}
+
+	/**
+	 * @return - the generation to hand back to put(),
+	 * captured before the result is read or written
+	 */
+	public long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * @return - the cached result, or null on a miss
+	 */
+	public CalculationResult get(CalculationRequest request) {
+
+		if (!isEnabled()) { return null; }
+
+		CalculationResult result;
+		synchronized (entries) {
+			result = entries.get(request.getKey());
+		}
+
+		if (null!=result) { hits.incrementAndGet(); }
+		else { misses.incrementAndGet(); }
+
+		return result;
+	}
+
+	/**
+	 * caches the (stored) result, unless the cache was cleared
+	 * since the given generation was obtained
+	 */
+	public void put(CalculationResult result, long expectedGeneration) {
+
+		if (!isEnabled()) { return; }
+
+		synchronized (entries) {
+			if (expectedGeneration!=generation.get()) { return; }
+			entries.put(result.getKey(),result);
+		}
+	}
+
+	/**
+	 * drops the result, and any put of it already under way
+	 * (one read from the database before it was deleted)
+	 */
+	public void remove(CalculationRequest request) {
+
+		if (!isEnabled()) { return; }
+
+		synchronized (entries) {
+			generation.incrementAndGet();
+			entries.remove(request.getKey());
+		}
+	}
+
+	public void clear() {
+
+		synchronized (entries) {
+			generation.incrementAndGet();
+			entries.clear();
+		}
+	}
+
+	@ManagedAttribute(description="Maximum number of cached results")
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	@ManagedAttribute(description="Number of cached results")
+	public int getSize() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	@ManagedAttribute(description="Lookups answered from the cache")
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	@ManagedAttribute(description="Lookups that fell through to the database")
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	@ManagedAttribute(description="Results dropped to stay within the max size")
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+}
@@ -0,0 +1,162 @@
+package com.eli.calc.shape.service.impl;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.eli.calc.shape.domain.CalculationResult;
+import com.eli.calc.shape.service.CalculatedResults;
+import com.eli.calc.shape.service.PendingRequests;
+
+/**
+ * Persistence inside the calculator tasks: each task, once it has its
+ * result, stores it and takes its request off the queue itself (in one
+ * transaction), rather than leaving both to the thread running the queue.
+ * 
+ * The stores then run in parallel, but at most maxConcurrent at once -
+ * each holds a database connection, and the rest wait for a permit.
+ */
+@ManagedResource(objectName="com.eli.calc.shape:type=ResultPersistStage", description="Results persisted by the calculator tasks")
+public class ResultPersistStage implements InitializingBean {
+
+	private static final Logger logger = LoggerFactory.getLogger(ResultPersistStage.class);
+
+	private final boolean enabled;
+
+	private final int maxConcurrent;
+
+	private final Semaphore permits;
+
+	@Autowired
+	private PendingRequests pendingRequests;
+
+	@Autowired
+	private CalculatedResults calculatedResults;
+
+	//only with the jpa backend
+	@Autowired(required=false)
+	private PlatformTransactionManager transactionManager;
+
+	private TransactionTemplate transactionTemplate;
+
+	private final AtomicLong numPersisted = new AtomicLong();
+	private final AtomicLong numFailed = new AtomicLong();
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+
+	public ResultPersistStage(boolean enabled, int maxConcurrent) {
+
+		if (1>maxConcurrent) { throw new IllegalArgumentException("max concurrent must be positive"); }
+
+		this.enabled = enabled;
+		this.maxConcurrent = maxConcurrent;
+		this.permits = new Semaphore(maxConcurrent, true);
+
+		logger.debug("result persist stage enabled={} maxConcurrent={}",enabled,maxConcurrent);
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+
+		if (null!=transactionManager) { transactionTemplate = new TransactionTemplate(transactionManager); }
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return - the calculation, followed by the persisting of its result
+	 */
+	public Callable<CalculationResult> persisting(final Callable<CalculationResult> calculation) {
+
+		if (null==calculation) { throw new IllegalArgumentException("calculation can not be null"); }
+
+		return () -> {
+			CalculationResult result = calculation.call();
+			persist(result);
+			return result;
+		};
+	}
+
+	/**
+	 * takes the result's request off the queue and (unless it is an error)
+	 * stores the result, in one transaction - once a permit is free
+	 */
+	public void persist(final CalculationResult result) throws InterruptedException {
+
+		if (!enabled) { throw new IllegalStateException("result persist stage is not enabled"); }
+
+		long start = System.nanoTime();
+		permits.acquire();
+		totalWaitNanos.addAndGet(System.nanoTime()-start);
+		try {
+			if (null==transactionTemplate) {
+				store(result);
+			} else {
+				transactionTemplate.execute(status -> { store(result); return null; });
+			}
+			numPersisted.incrementAndGet();
+
+		} catch (RuntimeException e) {
+			numFailed.incrementAndGet();
+			throw e;
+		} finally {
+			permits.release();
+		}
+	}
+
+	private void store(CalculationResult result) {
+
+		// a keyed delete, which counts off only what was still pending
+		pendingRequests.removeRequests(Collections.singletonList(result.getRequest()));
+		if (!result.isError()) {
+			calculatedResults.putResult(result);
+		}
+	}
+
+	@ManagedAttribute(description="Whether the calculator tasks persist their own results")
+	public boolean getEnabled() {
+		return enabled;
+	}
+
+	@ManagedAttribute(description="Most tasks persisting at once")
+	public int getMaxConcurrent() {
+		return maxConcurrent;
+	}
+
+	@ManagedAttribute(description="Tasks persisting now")
+	public int getActiveCount() {
+		return maxConcurrent - permits.availablePermits();
+	}
+
+	@ManagedAttribute(description="Tasks waiting for a permit to persist")
+	public int getWaitingCount() {
+		return permits.getQueueLength();
+	}
+
+	@ManagedAttribute(description="Results persisted (or requests dequeued, for errors)")
+	public long getPersistedCount() {
+		return numPersisted.get();
+	}
+
+	@ManagedAttribute(description="Results that failed to be persisted")
+	public long getFailedCount() {
+		return numFailed.get();
+	}
+
+	@ManagedAttribute(description="Total milliseconds tasks have waited for a permit")
+	public long getTotalWaitMillis() {
+		return totalWaitNanos.get() / 1000000L;
+	}
+
+}
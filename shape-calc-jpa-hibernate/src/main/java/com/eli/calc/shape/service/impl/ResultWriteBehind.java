@@ -0,0 +1,608 @@
+package com.eli.calc.shape.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.eli.calc.shape.domain.CalculationRequest;
+import com.eli.calc.shape.domain.CalculationResult;
+import com.eli.calc.shape.domain.RequestKey;
+import com.eli.calc.shape.persistence.service.CalculationResultPersistService;
+import com.eli.calc.shape.service.PendingRequests;
+
+/**
+ * Write-behind for completed requests: submit() queues them (blocking
+ * only while the bounded queue is full) and a background flusher stores
+ * the results and takes the requests off the pending queue, a batch at a time,
+ * each batch in one transaction.
+ * 
+ * A batch is flushed once it reaches the max batch size, once its oldest
+ * entry has waited the max latency, or as soon as flush() is called.
+ * 
+ * If a batch fails, its entries are stored one at a time; any that still fail
+ * are kept (and still answered by getUnflushed()) and retried every retry interval,
+ * up to maxRetries times. Their requests stay pending until their results are
+ * stored, so if the process dies first - or the retries are given up on, and the
+ * results dropped - they will simply be run again.
+ * 
+ * Until it is stored, a result is answered by getUnflushed(). Readers only
+ * need catchUp(), which does not fail on what is being retried; flush()
+ * (and shutdown) report it.
+ * Whatever is queued at shutdown is flushed before the flusher stops.
+ */
+@ManagedResource(objectName="com.eli.calc.shape:type=ResultWriteBehind", description="Write-behind of calculated results")
+public class ResultWriteBehind implements InitializingBean, DisposableBean {
+
+	private static final Logger logger = LoggerFactory.getLogger(ResultWriteBehind.class);
+
+	//a done request, with its result (null when the calculation failed)
+	private static final class Done {
+		final CalculationRequest request;
+		final CalculationResult result;
+		long seq; //its place in the queue, from 1
+		int retries; //failed retries, counted by the flusher
+		Done(CalculationRequest request, CalculationResult result) {
+			this.request = request;
+			this.result = result;
+		}
+	}
+
+	//queued by flush(), so the flusher stops gathering and writes out what it has
+	private static final Done FLUSH = new Done(null, null);
+
+	private static final long OFFER_WAIT_MILLIS = 100;
+
+	private final boolean enabled;
+
+	private final int capacity;
+
+	private final int maxBatchSize;
+
+	private final long maxLatencyNanos;
+
+	private final long retryIntervalNanos;
+
+	private final int maxRetries;
+
+	@Autowired
+	private CalculationResultPersistService resultsPersistService;
+
+	@Autowired
+	private PendingRequests pendingRequests;
+
+	//only with the jpa backend; without one, each store is committed as it is made
+	@Autowired(required=false)
+	private PlatformTransactionManager transactionManager;
+
+	private final BlockingQueue<Done> queue;
+
+	private final Map<RequestKey,CalculationResult> unflushed = new ConcurrentHashMap<RequestKey,CalculationResult>();
+
+	//held while entries are queued, so they are numbered in queue order
+	//and none can be queued once destroy() has stopped the flusher
+	private final ReentrantLock submitLock = new ReentrantLock();
+	private volatile long numSubmitted;
+
+	//the queue position of the last entry the flusher has tried to store,
+	//and the entries that failed, waiting to be retried, by position;
+	//flush() waits for the first to catch up, then fails if any of its entries are in the second
+	private long numAttempted;
+	private final SortedMap<Long,Done> retrying = new TreeMap<Long,Done>();
+	private final ReentrantLock flushLock = new ReentrantLock();
+	private final Condition flushed = flushLock.newCondition();
+
+	private volatile boolean running;
+
+	private Thread flusher;
+
+	private final AtomicLong numFlushes = new AtomicLong();
+	private final AtomicLong numStored = new AtomicLong();
+	private final AtomicLong numFailed = new AtomicLong();
+	private final AtomicLong numGivenUp = new AtomicLong();
+	private final AtomicLong totalFlushNanos = new AtomicLong();
+	private volatile long lastFlushNanos;
+	private volatile long maxFlushNanos;
+	private volatile int lastBatchSize;
+
+	public ResultWriteBehind(boolean enabled, int capacity, int maxBatchSize, long maxLatencyMillis, long retryIntervalMillis, int maxRetries) {
+
+		if (1>capacity) { throw new IllegalArgumentException("queue capacity must be positive"); }
+		if (1>maxBatchSize) { throw new IllegalArgumentException("max batch size must be positive"); }
+		if (0>maxLatencyMillis) { throw new IllegalArgumentException("max latency must be zero or positive"); }
+		if (1>retryIntervalMillis) { throw new IllegalArgumentException("retry interval must be positive"); }
+		if (0>maxRetries) { throw new IllegalArgumentException("max retries must be zero or positive"); }
+
+		this.enabled = enabled;
+		this.capacity = capacity;
+		this.maxBatchSize = maxBatchSize;
+		this.maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(maxLatencyMillis);
+		this.retryIntervalNanos = TimeUnit.MILLISECONDS.toNanos(retryIntervalMillis);
+		this.maxRetries = maxRetries;
+		this.queue = new ArrayBlockingQueue<Done>(capacity);
+
+		logger.debug("result write-behind enabled={} capacity={} maxBatchSize={} maxLatencyMillis={} retryIntervalMillis={} maxRetries={}",
+				enabled,capacity,maxBatchSize,maxLatencyMillis,retryIntervalMillis,maxRetries);
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+
+		if (!enabled) { return; }
+
+		running = true;
+		flusher = new Thread(this::flushLoop, "result-write-behind");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * stops the flusher, once it has stored what is queued
+	 * 
+	 * @throws IllegalStateException - if any of it could not be stored
+	 */
+	@Override
+	public void destroy() throws InterruptedException {
+
+		if (!enabled) { return; }
+
+		// no submit() can be part way through, or start, once this is set
+		submitLock.lock();
+		try {
+			running = false;
+		} finally {
+			submitLock.unlock();
+		}
+
+		try {
+			offer(FLUSH); // wakes the flusher, which drains the queue before it stops
+		} catch (IllegalStateException e) {
+			// it has stopped already - the join below returns at once
+		}
+		flusher.join(TimeUnit.SECONDS.toMillis(30));
+		if (flusher.isAlive() || !queue.isEmpty()) {
+			throw new IllegalStateException("result write-behind did not finish flushing - "+queue.size()+" entries not stored");
+		}
+		flushLock.lock();
+		try {
+			if (!retrying.isEmpty()) {
+				throw new IllegalStateException("result write-behind could not store "+retrying.size()
+						+" entries - their requests are still pending");
+			}
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * queues the done requests and their results for storing
+	 * @param doneRequests - all the requests to take off the pending queue
+	 * @param results - the results of those of them that succeeded
+	 */
+	public void submit(Collection<CalculationRequest> doneRequests, Collection<CalculationResult> results) throws InterruptedException {
+
+		if (!enabled) { throw new IllegalStateException("result write-behind is not enabled"); }
+
+		submitLock.lockInterruptibly();
+		try {
+			if (!running) { throw new IllegalStateException("result write-behind has been shut down"); }
+
+			Set<RequestKey> withResults = new HashSet<RequestKey>();
+			for (CalculationResult result : results) {
+				// answered from here before the flusher can have stored it ...
+				unflushed.put(result.getKey(), result);
+				try {
+					enqueue(new Done(result.getRequest(), result));
+				} catch (InterruptedException | RuntimeException e) {
+					// ... but only if it was queued (those before it were, and will be stored)
+					unflushed.remove(result.getKey(), result);
+					throw e;
+				}
+				withResults.add(result.getKey());
+			}
+			for (CalculationRequest request : doneRequests) {
+				if (!withResults.contains(request.getKey())) { enqueue(new Done(request, null)); }
+			}
+		} finally {
+			submitLock.unlock();
+		}
+	}
+
+	private void enqueue(Done done) throws InterruptedException {
+		done.seq = numSubmitted + 1;
+		offer(done);
+		numSubmitted = done.seq;
+	}
+
+	/**
+	 * queues the entry, waiting while the queue is full -
+	 * but not for a flusher that is no longer there to empty it
+	 */
+	private void offer(Done done) throws InterruptedException {
+		while (!queue.offer(done, OFFER_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+			if (!flusher.isAlive()) { throw new IllegalStateException("result write-behind has stopped"); }
+		}
+	}
+
+	/**
+	 * @return - the result, if it is queued but not yet stored
+	 */
+	public CalculationResult getUnflushed(CalculationRequest request) {
+		return enabled ? unflushed.get(request.getKey()) : null;
+	}
+
+	/**
+	 * returns once everything submitted before the call has been stored
+	 * 
+	 * @throws IllegalStateException - if any of it could not be stored
+	 * (it is kept, and retried - or, meanwhile, given up on), or the flusher has stopped
+	 */
+	@ManagedOperation(description="Store everything queued so far")
+	public void flush() throws InterruptedException {
+
+		if (!enabled) { return; }
+
+		long givenUp = numGivenUp.get();
+		long target = catchUp();
+
+		flushLock.lock();
+		try {
+			if (!retrying.isEmpty() && retrying.firstKey() <= target) {
+				throw new IllegalStateException("result write-behind could not store "+retrying.headMap(target + 1).size()
+						+" entries - they are kept, and retried");
+			}
+		} finally {
+			flushLock.unlock();
+		}
+		if (numGivenUp.get() > givenUp) {
+			throw new IllegalStateException("result write-behind gave up on storing "+(numGivenUp.get() - givenUp)
+					+" entries - their requests are still pending");
+		}
+	}
+
+	/**
+	 * returns once everything submitted before the call has been tried - stored,
+	 * or kept to be retried, and so still answered by getUnflushed(). Unlike
+	 * flush(), what could not be stored is no failure here: it is for the reads,
+	 * which only need the write-behind to be no further behind than that.
+	 * 
+	 * @return - the queue position caught up to
+	 * @throws IllegalStateException - if the flusher has stopped
+	 */
+	public long catchUp() throws InterruptedException {
+
+		if (!enabled) { return 0; }
+
+		long target = numSubmitted;
+
+		flushLock.lock();
+		try {
+			if (numAttempted >= target) { return target; }
+		} finally {
+			flushLock.unlock();
+		}
+
+		offer(FLUSH);
+
+		flushLock.lock();
+		try {
+			while (numAttempted < target) {
+				if (!flusher.isAlive()) { throw new IllegalStateException("result write-behind has stopped"); }
+				flushed.await(100, TimeUnit.MILLISECONDS);
+			}
+			return target;
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	/**
+	 * drops the entries being retried, as their results are deleted:
+	 * they are not answered, or stored, any more (their requests stay pending)
+	 * 
+	 * @return - the number dropped
+	 */
+	public int discardRetrying() {
+
+		flushLock.lock();
+		try {
+			for (Done done : retrying.values()) {
+				if (null!=done.result) { unflushed.remove(done.result.getKey(), done.result); }
+			}
+			int numDiscarded = retrying.size();
+			retrying.clear();
+			if (0<numDiscarded) {
+				logger.warn("result write-behind dropped {} entries it could not store - their requests are still pending",numDiscarded);
+			}
+			return numDiscarded;
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	private void flushLoop() {
+
+		List<Done> batch = new ArrayList<Done>(maxBatchSize);
+		long nextRetry = System.nanoTime() + retryIntervalNanos;
+
+		while (running || !queue.isEmpty()) {
+			try {
+				// while entries wait to be retried, wake up in time to retry them
+				Done first = hasRetrying()
+						? queue.poll(Math.max(0, nextRetry - System.nanoTime()), TimeUnit.NANOSECONDS)
+						: queue.take();
+				if (null!=first && FLUSH!=first) { batch.add(first); }
+
+				// gather more, until the batch is full, the oldest entry
+				// has waited long enough, or a flush is asked for
+				long deadline = System.nanoTime() + maxLatencyNanos;
+				boolean flushNow = (FLUSH==first);
+				while (null!=first && !flushNow && batch.size() < maxBatchSize) {
+					long wait = deadline - System.nanoTime();
+					Done next = (wait > 0) ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+					if (null==next) { break; }
+					if (FLUSH==next) { flushNow = true; } else { batch.add(next); }
+				}
+
+				write(batch);
+				batch.clear();
+
+				if (hasRetrying() && System.nanoTime() - nextRetry >= 0) {
+					retry();
+					nextRetry = System.nanoTime() + retryIntervalNanos;
+				}
+
+			} catch (InterruptedException e) {
+				// only destroy() stops the flusher - and not before the queue is empty
+				logger.warn("result write-behind flusher interrupted - carrying on");
+			}
+		}
+
+		// a last try, for what is still failing
+		if (hasRetrying()) { retry(); }
+		logger.debug("result write-behind flusher stopped");
+	}
+
+	private boolean hasRetrying() {
+		flushLock.lock();
+		try {
+			return !retrying.isEmpty();
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	private void write(List<Done> batch) {
+
+		if (batch.isEmpty()) { return; }
+
+		long start = System.nanoTime();
+		List<Done> failed = Collections.emptyList();
+		try {
+			store(batch, false);
+
+		} catch (RuntimeException e) {
+			logger.warn("result write-behind failed to store a batch of "+batch.size()+" entries - storing them one at a time",e);
+			failed = storeOneAtATime(batch);
+		}
+		long elapsed = System.nanoTime() - start;
+
+		numFlushes.incrementAndGet();
+		totalFlushNanos.addAndGet(elapsed);
+		lastFlushNanos = elapsed;
+		if (elapsed > maxFlushNanos) { maxFlushNanos = elapsed; }
+		lastBatchSize = batch.size();
+
+		flushLock.lock();
+		try {
+			// taken from the queue in order, so the last is the furthest on
+			numAttempted = batch.get(batch.size()-1).seq;
+			for (Done done : failed) {
+				if (0==maxRetries) { giveUp(done); } else { retrying.put(done.seq, done); }
+			}
+			flushed.signalAll();
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	private void retry() {
+
+		List<Done> failing;
+		flushLock.lock();
+		try {
+			failing = new ArrayList<Done>(retrying.values());
+		} finally {
+			flushLock.unlock();
+		}
+
+		List<Done> stillFailing = storeOneAtATime(failing);
+
+		flushLock.lock();
+		try {
+			for (Done done : failing) {
+				if (!stillFailing.contains(done)) {
+					retrying.remove(done.seq);
+				} else if (++done.retries >= maxRetries && null!=retrying.remove(done.seq)) {
+					giveUp(done);
+				}
+			}
+			flushed.signalAll();
+		} finally {
+			flushLock.unlock();
+		}
+		logger.debug("result write-behind retried {} entries, {} still failing",failing.size(),stillFailing.size());
+	}
+
+	/**
+	 * no more retries: the result is dropped - no longer answered, so its
+	 * request, which stays pending, is run again
+	 */
+	private void giveUp(Done done) {
+
+		if (null!=done.result) { unflushed.remove(done.result.getKey(), done.result); }
+		numGivenUp.incrementAndGet();
+		logger.error("result write-behind gave up on storing {} after {} retries - its request is still pending",done.request,done.retries);
+	}
+
+	/**
+	 * @return - the entries that could not be stored
+	 */
+	private List<Done> storeOneAtATime(List<Done> entries) {
+
+		List<Done> failed = new ArrayList<Done>();
+		for (Done done : entries) {
+			try {
+				// the batch may have failed part way through, or been stored by a try before -
+				// so a result found already stored is not stored again
+				store(Collections.singletonList(done), true);
+			} catch (RuntimeException e) {
+				numFailed.incrementAndGet();
+				failed.add(done);
+				logger.error("result write-behind failed to store "+done.request+" - keeping it to retry",e);
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * stores the results, then takes the requests off the pending queue,
+	 * together - in one transaction
+	 */
+	private void store(List<Done> entries, final boolean skipStored) {
+
+		final List<CalculationResult> results = new ArrayList<CalculationResult>(entries.size());
+		final List<CalculationRequest> requests = new ArrayList<CalculationRequest>(entries.size());
+		for (Done done : entries) {
+			if (null!=done.result) { results.add(done.result); }
+			requests.add(done.request);
+		}
+
+		Runnable write = () -> {
+			List<CalculationResult> toSave = results;
+			if (skipStored) {
+				toSave = new ArrayList<CalculationResult>(results.size());
+				for (CalculationResult result : results) {
+					if (null==resultsPersistService.findResultByRequest(result.getRequest())) { toSave.add(result); }
+				}
+			}
+			resultsPersistService.saveResults(toSave);
+			pendingRequests.removeRequests(requests);
+		};
+
+		if (null==transactionManager) {
+			write.run();
+		} else {
+			new TransactionTemplate(transactionManager).execute(status -> { write.run(); return null; });
+		}
+
+		for (CalculationResult result : results) {
+			unflushed.remove(result.getKey(), result);
+		}
+		numStored.addAndGet(entries.size());
+	}
+
+	@ManagedAttribute(description="Whether results are written behind")
+	public boolean getEnabled() {
+		return enabled;
+	}
+
+	@ManagedAttribute(description="Entries waiting to be stored")
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	@ManagedAttribute(description="Most entries that can be waiting")
+	public int getCapacity() {
+		return capacity;
+	}
+
+	@ManagedAttribute(description="Most entries stored in one transaction")
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	@ManagedAttribute(description="Batches stored")
+	public long getFlushCount() {
+		return numFlushes.get();
+	}
+
+	@ManagedAttribute(description="Entries stored")
+	public long getStoredCount() {
+		return numStored.get();
+	}
+
+	@ManagedAttribute(description="Failed tries to store an entry on its own (it is kept, and retried)")
+	public long getFailedCount() {
+		return numFailed.get();
+	}
+
+	@ManagedAttribute(description="Entries that could not be stored, waiting to be retried (their requests stay pending)")
+	public int getRetryingCount() {
+		flushLock.lock();
+		try {
+			return retrying.size();
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	@ManagedAttribute(description="Retries of an entry before it is given up on")
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	@ManagedAttribute(description="Entries given up on after max retries (their results dropped, their requests still pending)")
+	public long getGivenUpCount() {
+		return numGivenUp.get();
+	}
+
+	@ManagedAttribute(description="Entries in the last batch stored")
+	public int getLastBatchSize() {
+		return lastBatchSize;
+	}
+
+	@ManagedAttribute(description="Time to store the last batch, in milliseconds")
+	public double getLastFlushMillis() {
+		return lastFlushNanos / 1e6;
+	}
+
+	@ManagedAttribute(description="Longest time to store a batch, in milliseconds")
+	public double getMaxFlushMillis() {
+		return maxFlushNanos / 1e6;
+	}
+
+	@ManagedAttribute(description="Average time to store a batch, in milliseconds")
+	public double getAverageFlushMillis() {
+		long flushes = numFlushes.get();
+		return (0==flushes) ? 0.0 : totalFlushNanos.get() / 1e6 / flushes;
+	}
+
+}
@@ -1,22 +1,42 @@
 package com.eli.calc.shape.service.impl;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import com.eli.calc.shape.ShapeCalculationsFactory;
 import com.eli.calc.shape.domain.CalculationRequest;
 import com.eli.calc.shape.domain.CalculationResult;
+import com.eli.calc.shape.domain.CalculationResultView;
+import com.eli.calc.shape.domain.RequestKey;
 import com.eli.calc.shape.model.CalcType;
 import com.eli.calc.shape.model.ShapeName;
 import com.eli.calc.shape.service.CalculatedResults;
+import com.eli.calc.shape.service.ImportReport;
 import com.eli.calc.shape.service.PendingRequests;
 import com.eli.calc.shape.service.ShapeCalculatorService;
 
@@ -27,6 +47,10 @@ public class ShapeCalculatorServiceImpl implements ShapeCalculatorService {
 	
 	@Autowired
 	private ExecutorService executor;
+
+	@Autowired
+	@Qualifier("computeExecutor")
+	private Executor computeExecutor;
 	
 	@Autowired
 	private ShapeCalculationsFactory shapeFactory;
@@ -36,11 +60,59 @@ public class ShapeCalculatorServiceImpl implements ShapeCalculatorService {
 	
 	@Autowired
 	private CalculatedResults calculatedResults;
+
+	@Autowired
+	private ResultWriteBehind writeBehind;
+
+	@Autowired
+	private RequestGroupCommit groupCommit;
+
+	@Autowired
+	private ResultPersistStage persistStage;
+
+	@Autowired
+	private InFlightCalculations inFlight;
+
+	@Autowired
+	private RequestDispatcher dispatcher;
+
+	@Autowired
+	private AdmissionControl admission;
+
+	@Autowired
+	private Environment env;
+
+	//only with the jpa backend; without one, each chunk's stores are committed as they are made
+	@Autowired(required=false)
+	private PlatformTransactionManager transactionManager;
 	
 	public void deleteAllPendingRequests() {
+		catchUpWriteBehind();
 		pendingRequests.deleteAllRequests();
 	}
 
+	public void flushResults() {
+		try {
+			writeBehind.flush();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * what the reads wait for: everything written behind so far tried - not
+	 * failing on results being retried, which calculatedResults still answers
+	 */
+	private void catchUpWriteBehind() {
+		try {
+			writeBehind.catchUp();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+
 	public void deleteAllResults() {
 		calculatedResults.deleteAllResults();
 	}
@@ -54,18 +126,233 @@ public class ShapeCalculatorServiceImpl implements ShapeCalculatorService {
 		CalculationRequest request = new CalculationRequest(shapeName,calcType,dimension);
 		
 		if (calculatedResults.containsRequest(request)) { return; }
+
+		// may wait, or be turned away, while the backlog is too big
+		admission.admit();
 		
-		pendingRequests.putRequest(request);
+		if (groupCommit.isEnabled()) {
+			// committed together with the concurrent callers'
+			groupCommit.enqueue(request);
+		} else {
+			// one statement, and already pending is a no-op
+			pendingRequests.putRequestIfAbsent(request);
+		}
+
+		dispatcher.wakeUp();
+	}
+
+	public CompletableFuture<CalculationResult> calculateAsync(ShapeName shapeName, CalcType calcType, double dimension) {
+
+		if (null==shapeName) { throw new IllegalArgumentException("ShapeName can not be null"); }
+		if (null==calcType) { throw new IllegalArgumentException("CalcType can not be null"); }
+		if (0>dimension) { throw new IllegalArgumentException("dimension must be zero or positive"); }
+
+		final CalculationRequest request = new CalculationRequest(shapeName,calcType,dimension);
+
+		if (calculatedResults.containsRequest(request)) {
+			CalculationResult stored = storedResult(request);
+			if (null!=stored) {
+				dequeueAnswered(request);
+				return CompletableFuture.completedFuture(stored);
+			}
+		}
+
+		CompletableFuture<CalculationResult> future = new CompletableFuture<CalculationResult>();
+		CompletableFuture<CalculationResult> underWay = inFlight.claim(request,future);
+		if (null!=underWay) { return underWay; }
+
+		try {
+			executor.execute(() -> calculateClaimed(request));
+		} catch (RejectedExecutionException e) {
+			inFlight.fail(request,e);
+		}
+		return future;
+	}
+
+	/**
+	 * runs the calculation this thread has the claim on, stores its
+	 * result, and only then completes (or fails) its future
+	 */
+	private void calculateClaimed(CalculationRequest request) {
+
+		try {
+			// an earlier claim may have stored it since we looked
+			CalculationResult stored = storedResult(request);
+			if (null!=stored) {
+				dequeueAnswered(request);
+				inFlight.complete(request,stored);
+				return;
+			}
+
+			CalculationResult result = new CalculatorSingleTask(shapeFactory,request,computeExecutor).call();
+			persistResult(result);
+
+			if (result.isError()) {
+				inFlight.fail(request,new IllegalArgumentException("Bad Param "+request.toString()));
+			} else {
+				inFlight.complete(request,result);
+			}
+
+		} catch (Exception e) {
+			logger.error(e.getMessage(),e);
+			inFlight.fail(request,e);
+		}
+	}
+
+	/**
+	 * takes a request answered from its stored result off the queue, should it
+	 * be there (as a run does) - unless the result is still to be written
+	 * behind, which takes it off once it is
+	 */
+	private void dequeueAnswered(CalculationRequest request) {
+
+		if (null==writeBehind.getUnflushed(request)) {
+			pendingRequests.removeRequests(Collections.singletonList(request));
+		}
+	}
+
+	/**
+	 * @return - the result stored for the request, or null
+	 */
+	private CalculationResult storedResult(CalculationRequest request) {
+
+		if (!calculatedResults.containsRequest(request)) { return null; }
+
+		CalculationResult stored = calculatedResults.getResults(Collections.singletonList(request)).get(request);
+		if (null==stored && writeBehind.isEnabled()) {
+			// seen, but not yet written
+			catchUpWriteBehind();
+			stored = calculatedResults.getResults(Collections.singletonList(request)).get(request);
+		}
+		return stored;
+	}
+
+	/**
+	 * stores one result (and takes its request off the queue, should it be there)
+	 * the way a run of the queue would
+	 */
+	private void persistResult(final CalculationResult result) throws InterruptedException {
+
+		if (persistStage.isEnabled() && !writeBehind.isEnabled()) {
+			persistStage.persist(result);
+			return;
+		}
+
+		final List<CalculationRequest> doneRequests = new ArrayList<CalculationRequest>(1);
+		final List<CalculationResult> doneResults = new ArrayList<CalculationResult>(1);
+		doneRequests.add(result.getRequest());
+		if (!result.isError()) { doneResults.add(result); }
+
+		if (null==transactionManager || writeBehind.isEnabled()) {
+			persistBatch(doneRequests,doneResults);
+		} else {
+			new TransactionTemplate(transactionManager).execute(status -> { persistBatch(doneRequests,doneResults); return null; });
+		}
+	}
+
+	public ImportReport importCalculationRequests(Iterator<CalculationRequest> requests) {
+
+		if (null==requests) { throw new IllegalArgumentException("requests can not be null"); }
+
+		int batchSize = Integer.parseInt(env.getRequiredProperty("calculator.import.batch.size"));
+
+		long start = System.nanoTime();
+		long numRead = 0, numImported = 0, numDuplicates = 0, numAlreadyCalculated = 0, numInvalid = 0;
+
+		// keyed, so repeats within a batch are caught before they reach the database
+		Map<RequestKey,CalculationRequest> batch = new LinkedHashMap<RequestKey,CalculationRequest>(batchSize * 2);
+
+		while (requests.hasNext()) {
+
+			CalculationRequest request = requests.next();
+			numRead++;
+
+			if (null==request || null==request.getShapeName() || null==request.getCalcType()
+					|| !(request.getDimension()>=0)) {
+				numInvalid++;
+			} else if (null!=batch.put(request.getKey(),request)) {
+				numDuplicates++;
+			}
+
+			if (batch.size()>=batchSize || (!requests.hasNext() && !batch.isEmpty())) {
+
+				// the whole batch checked against the results at once - one IN query
+				// per shape/calc type for what memory can not answer, as runChunk does
+				for (CalculationResult stored : calculatedResults.getResults(batch.values()).values()) {
+					if (null!=stored) {
+						batch.remove(stored.getRequest().getKey());
+						numAlreadyCalculated++;
+					}
+				}
+
+				if (!batch.isEmpty()) {
+					admission.admit();
+					int inserted = pendingRequests.importRequests(batch.values());
+					numImported += inserted;
+					numDuplicates += batch.size() - inserted;
+					batch.clear();
+					dispatcher.wakeUp();
+				}
+			}
+		}
+
+		ImportReport report = new ImportReport(numRead,numImported,numDuplicates,numAlreadyCalculated,numInvalid,System.nanoTime()-start);
+		logger.info("imported calculation requests: {}",report);
+		return report;
 	}
 
 	public List<CalculationRequest> getAllPendingRequests() {
+		catchUpWriteBehind();
 		return pendingRequests.getRequests();
 	}
 
+	public List<CalculationRequest> getPendingRequestsPage(CalculationRequest after, int pageSize) {
+
+		if (1>pageSize) { throw new IllegalArgumentException("pageSize must be greater than zero"); }
+
+		catchUpWriteBehind();
+		return pendingRequests.getRequestsPage(after, pageSize);
+	}
+
 	public List<CalculationResult> getAllCalculatedResults() {
 		return calculatedResults.getResults();
 	}
 
+	public Map<CalculationRequest,CalculationResult> getCalculatedResults(Collection<CalculationRequest> requests) {
+
+		if (null==requests) { throw new IllegalArgumentException("requests can not be null"); }
+		for (CalculationRequest request : requests) {
+			if (null==request) { throw new IllegalArgumentException("requests can not contain null"); }
+		}
+
+		return calculatedResults.getResults(requests);
+	}
+
+	public List<CalculationResult> getCalculatedResultsPage(CalculationRequest after, int pageSize) {
+
+		if (1>pageSize) { throw new IllegalArgumentException("pageSize must be greater than zero"); }
+
+		return calculatedResults.getResultsPage(after, pageSize);
+	}
+
+	public List<CalculationResultView> getAllCalculatedResultViews() {
+		return calculatedResults.getResultViews();
+	}
+
+	public List<CalculationResultView> getCalculatedResultViewsPage(CalculationRequest after, int pageSize) {
+
+		if (1>pageSize) { throw new IllegalArgumentException("pageSize must be greater than zero"); }
+
+		return calculatedResults.getResultViewsPage(after, pageSize);
+	}
+
+	public long forEachCalculatedResult(Consumer<CalculationResult> consumer) {
+
+		if (null==consumer) { throw new IllegalArgumentException("Consumer can not be null"); }
+
+		return calculatedResults.forEachResult(consumer);
+	}
+
 	public int runAllPendingRequestsStopOnError() {
 		return runAllPendingRequests(true);
 	}
@@ -76,68 +363,282 @@ public class ShapeCalculatorServiceImpl implements ShapeCalculatorService {
 
 	private int runAllPendingRequests(boolean stopOnError) {
 		
+		// requests done by an earlier run, but not yet taken off the queue, are not run again
+		catchUpWriteBehind();
+
 
 		if (pendingRequests.getNumRequests()<1) {
 			logger.warn("NO calculations run - there are no pending requests");
 			int numRun = 0;
 			return numRun;
 		}
-	
-		//lazy instantiation - see inside loop
-		List<Future<CalculationResult>> futureResults = null;
 
-		for (CalculationRequest cr :  pendingRequests.getRequests()) {
-			
-			// we may have previously cached a result - if so no need to re-run the request
-			if (calculatedResults.containsRequest(cr)){ continue; }
+		final int chunkSize = Integer.parseInt(env.getRequiredProperty("calculator.drain.chunk.size"));
 
-			// if we made it to here, we have a request we need to run calc on
+		// with write-behind the stores are already off this thread
+		final boolean persistInTasks = persistStage.isEnabled() && !writeBehind.isEnabled();
 
-			//lazy instantiation
-			if (null==futureResults) { futureResults = new ArrayList<Future<CalculationResult>>(); }
+		// when the tasks persist, each in its own transaction, there is nothing for a chunk's to cover
+		final TransactionTemplate chunkTransaction = (null==transactionManager || persistInTasks) ? null : new TransactionTemplate(transactionManager);
 
-			CalculatorSingleTask task = new CalculatorSingleTask(shapeFactory,cr);
-			Future<CalculationResult> futureResult = executor.submit(task);
-			futureResults.add(futureResult);
-		}
+		long start = System.nanoTime();
 
+		// the queue is drained a chunk at a time, in key order: only one chunk of
+		// requests (and their results) is held at once, and each is committed on its own
 		int numRun = 0;
+		CalculationRequest after = null;
+		while (true) {
 
-		if (null!=futureResults) {
-			for (Future<CalculationResult> futureResult : futureResults) {
-				try {
-					CalculationResult result = futureResult.get();
+			final CalculationRequest chunkAfter = after;
+			final DrainedChunk chunk = new DrainedChunk();
+			try {
+				if (null==chunkTransaction) {
+					runChunk(chunk,chunkAfter,chunkSize,stopOnError,persistInTasks);
+				} else {
+					chunkTransaction.execute(status -> { runChunk(chunk,chunkAfter,chunkSize,stopOnError,persistInTasks); return null; });
+				}
+			} catch (RuntimeException e) {
+				chunk.releaseClaims(inFlight,e);
+				throw e;
+			}
 
-					if (stopOnError && result.isError()) {
+			// committed, so whoever is waiting on these requests can have their results
+			chunk.releaseClaims(inFlight,null);
 
-						CalculationRequest req = result.getRequest();
-						pendingRequests.removeRequest(req); //bad request, get it off queue
-						throw new IllegalArgumentException("Bad Param "+((null!=req)?req.toString():""));
+			numRun += chunk.numRun;
 
-					} else if (result.isError()) {
+			// thrown once the chunk is committed, so the work done before it is kept
+			if (null!=chunk.failure) { throw chunk.failure; }
 
-						CalculationRequest req = result.getRequest();
-						logger.error("Bad Param "+((null!=req)?req.toString():""));
-						pendingRequests.removeRequest(req); //bad request, get it off queue
-						continue;
+			if (chunk.size<chunkSize) { break; }
+			after = chunk.last;
+		}
+
+		long elapsedMillis = Math.max(1,TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start));
+		logger.info("ran {} requests in {} ms ({} per second, executor.mode={})",
+				numRun,elapsedMillis,(numRun*1000L)/elapsedMillis,env.getProperty("executor.mode"));
+		return numRun;
+	}
+
+	/**
+	 * what became of one chunk of the queue
+	 */
+	private static final class DrainedChunk {
+		int size;
+		CalculationRequest last;
+		int numRun;
+		RuntimeException failure;
+
+		// set once the run stops taking results: the tasks not yet started then skip their calculation
+		volatile boolean stopping;
+
+		// the requests this run claimed (see InFlightCalculations), each with its result once taken
+		final Map<CalculationRequest,CalculationResult> claimed = new LinkedHashMap<CalculationRequest,CalculationResult>();
+
+		/**
+		 * hands the claimed requests' results to whoever is waiting on them -
+		 * or, for those without one (or if the chunk was not committed), the failure
+		 */
+		void releaseClaims(InFlightCalculations inFlight, RuntimeException notCommitted) {
+
+			for (Map.Entry<CalculationRequest,CalculationResult> claim : claimed.entrySet()) {
+
+				CalculationRequest request = claim.getKey();
+				CalculationResult result = claim.getValue();
+				if (null!=notCommitted) {
+					inFlight.fail(request,notCommitted);
+				} else if (null==result) {
+					inFlight.fail(request,(null!=failure) ? failure : new IllegalStateException(request+" was not run"));
+				} else if (result.isError()) {
+					inFlight.fail(request,new IllegalArgumentException("Bad Param "+request.toString()));
+				} else {
+					inFlight.complete(request,result);
+				}
+			}
+			claimed.clear();
+		}
+	}
+
+	/**
+	 * fetches the uncalculated requests after the given one (at most chunkSize),
+	 * runs those not already under way, and stores their results in the order
+	 * they complete - all in the caller's transaction, if any. Or, with
+	 * persistInTasks, the tasks store their own results, and this only collects them.
+	 */
+	private void runChunk(DrainedChunk chunk, CalculationRequest after, int chunkSize, boolean stopOnError, boolean persistInTasks) {
 
+		// requests we previously cached a result for are filtered out by the query,
+		// so there is no need to check each one against the results
+		List<CalculationRequest> requests = pendingRequests.getUncalculatedRequestsPage(after, chunkSize);
+		chunk.size = requests.size();
+		if (requests.isEmpty()) { return; }
+		chunk.last = requests.get(requests.size()-1);
+
+		List<CalculationRequest> claimedRequests = new ArrayList<CalculationRequest>(requests.size());
+		for (CalculationRequest cr : requests) {
+			// under way already - dispatched, by calculateAsync(), or by a concurrent run - so left to it
+			if (null==inFlight.claim(cr,new CompletableFuture<CalculationResult>())) { claimedRequests.add(cr); }
+		}
+
+		// a calculation that finished after the page was read, and before we claimed, has stored its result:
+		// that request is only taken off the queue (results are inserted, and a second would not be) -
+		// or, while its result is still to be written behind, left for the write-behind to take off
+		Map<CalculationRequest,CalculationResult> stored = claimedRequests.isEmpty()
+				? Collections.<CalculationRequest,CalculationResult>emptyMap() : calculatedResults.getResults(claimedRequests);
+
+		int batchSize = Integer.parseInt(env.getRequiredProperty("calculator.persist.batch.size"));
+
+		// completed work is persisted in batches rather than one round trip per result
+		List<CalculationRequest> doneRequests = new ArrayList<CalculationRequest>(batchSize);
+		List<CalculationResult> doneResults = new ArrayList<CalculationResult>(batchSize);
+
+		// results are taken as they complete, not in the order submitted,
+		// so one slow calculation does not hold back the ones behind it
+		CompletionService<CalculationResult> completedResults = new ExecutorCompletionService<CalculationResult>(executor);
+		int numSubmitted = 0;
+		for (CalculationRequest cr : claimedRequests) {
+
+			CalculationResult storedResult = stored.get(cr);
+			chunk.claimed.put(cr,storedResult);
+			if (null!=storedResult) {
+				if (null==writeBehind.getUnflushed(cr)) { doneRequests.add(cr); }
+				continue;
+			}
+
+			Callable<CalculationResult> task = new CalculatorSingleTask(shapeFactory,cr,computeExecutor);
+			if (persistInTasks) {
+				task = persistStage.persisting(task);
+			} else {
+				final Callable<CalculationResult> calculation = task;
+				task = () -> chunk.stopping ? null : calculation.call();
+			}
+			completedResults.submit(task);
+			numSubmitted++;
+		}
+
+		int numTaken = 0;
+		boolean interrupted = false;
+		while (numTaken < numSubmitted) {
+			try {
+				Future<CalculationResult> completed = completedResults.take();
+				numTaken++;
+				CalculationResult result = completed.get();
+				chunk.claimed.put(result.getRequest(),result);
+
+				if (persistInTasks) {
+
+					// already stored (or, for an error, taken off the queue) by the task
+					CalculationRequest req = result.getRequest();
+					if (result.isError() && stopOnError) {
+						chunk.failure = new IllegalArgumentException("Bad Param "+((null!=req)?req.toString():""));
+						break;
+					} else if (result.isError()) {
+						logger.error("Bad Param "+((null!=req)?req.toString():""));
+					} else {
+						chunk.numRun++;
 					}
 
-					pendingRequests.removeRequest(result.getRequest()); //ran request, get it off queue
-					calculatedResults.putResult(result);
-					numRun++;
+				} else if (stopOnError && result.isError()) {
+
+					CalculationRequest req = result.getRequest();
+					doneRequests.add(req); //bad request, get it off queue
+					chunk.failure = new IllegalArgumentException("Bad Param "+((null!=req)?req.toString():""));
+					break;
+
+				} else if (result.isError()) {
+
+					CalculationRequest req = result.getRequest();
+					logger.error("Bad Param "+((null!=req)?req.toString():""));
+					doneRequests.add(req); //bad request, get it off queue
+
+				} else {
+
+					doneRequests.add(result.getRequest()); //ran request, get it off queue
+					doneResults.add(result);
+					chunk.numRun++;
+				}
 
-				} catch (ExecutionException e) {
-					logger.error(e.getMessage(),e);
-					throw new RuntimeException(e);
-				} catch (InterruptedException e) {
-					logger.error(e.getMessage(),e);
-					throw new RuntimeException(e);
+				if (doneRequests.size()>=batchSize) {
+					persistBatch(doneRequests,doneResults);
 				}
+
+			} catch (ExecutionException e) {
+				logger.error(e.getMessage(),e);
+				chunk.failure = new RuntimeException(e);
+				break;
+			} catch (InterruptedException e) {
+				logger.error(e.getMessage(),e);
+				chunk.failure = new RuntimeException(e);
+				interrupted = true;
+				break;
 			}
 		}
 
-		return numRun;
+		if (persistInTasks && !interrupted) {
+			// the tasks still running store their results as they finish -
+			// the next run must not find their requests still queued
+			awaitTasks(chunk, completedResults, numSubmitted-numTaken);
+		} else if (!persistInTasks && numTaken < numSubmitted) {
+			// stopped early: the tasks not yet started are skipped, and those still
+			// running waited for - their claims are released once this returns, and
+			// none may still be calculating then - and their results dropped, so
+			// their requests stay queued for the next run
+			chunk.stopping = true;
+			if (!interrupted) { dropTasks(completedResults, numSubmitted-numTaken); }
+		}
+
+		persistBatch(doneRequests,doneResults);
+	}
+
+	private void awaitTasks(DrainedChunk chunk, CompletionService<CalculationResult> completedResults, int numTasks) {
+
+		for (int i = 0; i < numTasks; i++) {
+			try {
+				CalculationResult result = completedResults.take().get();
+				chunk.claimed.put(result.getRequest(),result);
+			} catch (ExecutionException e) {
+				logger.error(e.getMessage(),e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	private void dropTasks(CompletionService<CalculationResult> completedResults, int numTasks) {
+
+		for (int i = 0; i < numTasks; i++) {
+			try {
+				completedResults.take().get();
+			} catch (ExecutionException e) {
+				logger.debug("dropped a failed task: {}",e.getMessage());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * takes the completed requests off the queue and stores their results,
+	 * each as one bulk operation - or, with write-behind, hands them to
+	 * the flusher to do so - then empties both lists for re-use.
+	 * (every result's request is among the requests, so with none there is nothing to do -
+	 * as at the end of a chunk whose tasks persisted their own)
+	 */
+	private void persistBatch(List<CalculationRequest> doneRequests, List<CalculationResult> doneResults) {
+
+		if (doneRequests.isEmpty()) { return; }
+
+		if (writeBehind.isEnabled()) {
+			calculatedResults.putResultsBehind(doneRequests,doneResults);
+		} else {
+			pendingRequests.removeRequests(doneRequests);
+			calculatedResults.putResults(doneResults);
+		}
+
+		doneRequests.clear();
+		doneResults.clear();
 	}
 
 }
\ No newline at end of file
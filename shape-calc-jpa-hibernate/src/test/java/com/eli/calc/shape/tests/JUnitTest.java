@@ -2,11 +2,13 @@ package com.eli.calc.shape.tests;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 
 import org.junit.After;
@@ -30,9 +32,13 @@ import org.springframework.test.context.junit4.SpringRunner;
 import com.eli.calc.shape.config.ShapeCalcBaseContext;
 import com.eli.calc.shape.domain.CalculationRequest;
 import com.eli.calc.shape.domain.CalculationResult;
+import com.eli.calc.shape.domain.CalculationResultView;
 import com.eli.calc.shape.model.CalcType;
 import com.eli.calc.shape.model.ShapeName;
+import com.eli.calc.shape.service.ImportReport;
+import com.eli.calc.shape.service.PendingRequests;
 import com.eli.calc.shape.service.ShapeCalculatorService;
+import com.eli.calc.shape.service.impl.InFlightCalculations;
 
 @RunWith(SpringRunner.class)
 @ContextConfiguration(classes={ShapeCalcBaseContext.class})
@@ -44,6 +50,12 @@ public class JUnitTest implements ApplicationContextAware {
 	
 	@Autowired
 	private ShapeCalculatorService calculator;
+
+	@Autowired
+	private InFlightCalculations inFlight;
+
+	@Autowired
+	private PendingRequests pendingRequests;
 	
 	@Rule
 	public ExpectedException illegalArgThrown = ExpectedException.none();
@@ -238,6 +250,148 @@ public class JUnitTest implements ApplicationContextAware {
 		assertEquals(0,results.size());
 	}
 
+	@Test
+	public void testPagingThroughRequestsAndResults() {
+
+		calculator.deleteAllPendingRequests();
+
+		for (double dimension=0; dimension<9; dimension++) {
+			calculator.queueCalculationRequest(ShapeName.CIRCLE, CalcType.CALC_AREA, dimension);
+			calculator.queueCalculationRequest(ShapeName.SQUARE, CalcType.CALC_AREA, dimension);
+			calculator.queueCalculationRequest(ShapeName.SQUARE, CalcType.CALC_VOLUME, dimension);
+		}
+
+		List<CalculationRequest> all = calculator.getAllPendingRequests();
+		assertEquals(27,all.size());
+
+		List<CalculationRequest> paged = new ArrayList<CalculationRequest>();
+		List<CalculationRequest> page = calculator.getPendingRequestsPage(null, 10);
+		while (!page.isEmpty()) {
+			paged.addAll(page);
+			page = calculator.getPendingRequestsPage(page.get(page.size()-1), 10);
+		}
+		assertEquals(all,paged);
+
+		calculator.runAllPendingRequestsNoStopOnError();
+
+		List<CalculationResult> results = calculator.getCalculatedResultsPage(null, 20);
+		assertEquals(20,results.size());
+		results = calculator.getCalculatedResultsPage(results.get(19).getRequest(), 20);
+		assertEquals(7,results.size());
+		results = calculator.getCalculatedResultsPage(results.get(6).getRequest(), 20);
+		assertEquals(0,results.size());
+	}
+
+	@Test
+	public void testResultViews() {
+
+		for (double dimension=0; dimension<9; dimension++) {
+			calculator.queueCalculationRequest(ShapeName.CIRCLE, CalcType.CALC_AREA, dimension);
+			calculator.queueCalculationRequest(ShapeName.SQUARE, CalcType.CALC_AREA, dimension);
+			calculator.queueCalculationRequest(ShapeName.SQUARE, CalcType.CALC_VOLUME, dimension);
+		}
+		calculator.runAllPendingRequestsNoStopOnError();
+
+		// the views project the same results, in the same order
+		List<CalculationResult> results = calculator.getAllCalculatedResults();
+		List<CalculationResultView> views = calculator.getAllCalculatedResultViews();
+		assertEquals(27,views.size());
+		for (int i=0; i<views.size(); i++) {
+			assertEquals(results.get(i).getRequest(),views.get(i).getRequest());
+			assertEquals(results.get(i).getResult(),views.get(i).getResult(),0.0);
+			assertEquals(results.get(i).isError(),views.get(i).isError());
+		}
+
+		List<CalculationResultView> paged = new ArrayList<CalculationResultView>();
+		List<CalculationResultView> page = calculator.getCalculatedResultViewsPage(null, 20);
+		assertEquals(20,page.size());
+		while (!page.isEmpty()) {
+			paged.addAll(page);
+			page = calculator.getCalculatedResultViewsPage(page.get(page.size()-1).getRequest(), 20);
+		}
+		assertEquals(views,paged);
+	}
+
+	@Test
+	public void testCalculateAsync() throws Exception {
+		calculator.queueCalculationRequest(ShapeName.CUBE, CalcType.CALC_VOLUME, 3);
+
+		CalculationResult result = calculator.calculateAsync(ShapeName.CUBE, CalcType.CALC_VOLUME, 3).get();
+		assertEquals(27.0 ,result.getResult(),0.0);
+
+		// stored, and no longer pending
+		assertEquals(1 ,calculator.getAllCalculatedResults().size());
+		assertEquals(0 ,calculator.getAllPendingRequests().size());
+
+		// the stored result, rather than another calculation
+		CompletableFuture<CalculationResult> again = calculator.calculateAsync(ShapeName.CUBE, CalcType.CALC_VOLUME, 3);
+		assertTrue(again.isDone());
+		assertEquals(result ,again.get());
+	}
+
+	@Test
+	public void testCalculateAsyncSameRequestInFlight() throws Exception {
+		long claimedBefore = inFlight.getClaimedCount();
+		List<CompletableFuture<CalculationResult>> futures = new ArrayList<CompletableFuture<CalculationResult>>();
+		for (int i=0; i<20; i++) {
+			futures.add(calculator.calculateAsync(ShapeName.SQUARE, CalcType.CALC_AREA, 4));
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).get();
+
+		// calculated once: the rest were handed its future (or, once it was done, its stored result)
+		assertEquals(1 ,inFlight.getClaimedCount()-claimedBefore);
+
+		for (CompletableFuture<CalculationResult> f : futures) {
+			assertEquals(16.0 ,f.get().getResult(),0.0);
+		}
+		assertEquals(1 ,calculator.getAllCalculatedResults().size());
+	}
+
+	@Test
+	public void testCalculateAsyncOfAStoredResultDequeuesIt() throws Exception {
+		assertEquals(16.0 ,calculator.calculateAsync(ShapeName.SQUARE, CalcType.CALC_AREA, 4).get().getResult(),0.0);
+		calculator.flushResults();
+
+		// queued again behind the calculator's back (as by a concurrent caller that looked before it was stored)
+		pendingRequests.putRequest(new CalculationRequest(ShapeName.SQUARE, CalcType.CALC_AREA, 4.0));
+		assertEquals(1 ,calculator.getAllPendingRequests().size());
+
+		// answered from the stored result - and no longer left queued
+		assertEquals(16.0 ,calculator.calculateAsync(ShapeName.SQUARE, CalcType.CALC_AREA, 4).get().getResult(),0.0);
+		assertEquals(0 ,calculator.getAllPendingRequests().size());
+	}
+
+	@Test
+	public void testCalculateAsyncWithNullShapeName() {
+		illegalArgThrown.expect(IllegalArgumentException.class);
+		calculator.calculateAsync(null, CalcType.CALC_AREA, 1);
+	}
+
+	@Test
+	public void testImportCalculationRequests() {
+
+		calculator.queueCalculationRequest(ShapeName.CUBE, CalcType.CALC_AREA, 7.0);
+		calculator.runAllPendingRequestsNoStopOnError();
+		calculator.queueCalculationRequest(ShapeName.CUBE, CalcType.CALC_AREA, 8.0);
+
+		List<CalculationRequest> requests = new ArrayList<CalculationRequest>();
+		for (double dimension=0; dimension<2500; dimension++) {
+			requests.add(new CalculationRequest(ShapeName.CUBE, CalcType.CALC_AREA, dimension));
+		}
+		requests.add(new CalculationRequest(ShapeName.CUBE, CalcType.CALC_AREA, 1.0));
+		requests.add(new CalculationRequest(ShapeName.CUBE, CalcType.CALC_AREA, -1.0));
+		requests.add(null);
+
+		ImportReport report = calculator.importCalculationRequests(requests.iterator());
+
+		assertEquals(2503,report.getNumRead());
+		assertEquals(2,report.getNumInvalid());
+		assertEquals(1,report.getNumAlreadyCalculated());
+		assertEquals(2,report.getNumDuplicates());
+		assertEquals(2498,report.getNumImported());
+		assertEquals(2499,calculator.getAllPendingRequests().size());
+	}
+
 	@Test
 	public void testTestForCorrectCalculatedResults() {
 
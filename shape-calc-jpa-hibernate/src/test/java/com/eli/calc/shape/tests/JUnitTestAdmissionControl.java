@@ -0,0 +1,209 @@
+package com.eli.calc.shape.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.eli.calc.shape.config.ShapeCalcBaseContext;
+import com.eli.calc.shape.domain.CalculationRequest;
+import com.eli.calc.shape.model.CalcType;
+import com.eli.calc.shape.model.ShapeName;
+import com.eli.calc.shape.service.PendingRequests;
+import com.eli.calc.shape.service.ShapeCalculatorService;
+import com.eli.calc.shape.service.impl.AdmissionControl;
+
+/**
+ * The background check and count are as good as never (check.interval.ms,
+ * resync.interval.ms): each test checks or counts the pending requests itself
+ * (check(), count()), so what is admitted does not depend on when one happens to run.
+ */
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes={ShapeCalcBaseContext.class})
+@TestPropertySource(properties={
+		"calculator.admission.enabled=true",
+		"calculator.admission.policy=timed-wait",
+		"calculator.admission.pending.high.watermark=20",
+		"calculator.admission.pending.low.watermark=10",
+		"calculator.admission.max.wait.ms=1000",
+		"calculator.admission.check.interval.ms=3600000",
+		"calculator.admission.resync.interval.ms=3600000"})
+public class JUnitTestAdmissionControl {
+
+	@Autowired
+	private ShapeCalculatorService calculator;
+
+	@Autowired
+	private PendingRequests pendingRequests;
+
+	@Autowired
+	private AdmissionControl admission;
+
+	@Autowired
+	private ApplicationContext ctx;
+
+	//built by a test, for a policy other than the calculator's
+	private AdmissionControl own;
+
+	@Before // each test
+	public void setUp() throws Exception {
+		calculator.deleteAllPendingRequests();
+		calculator.deleteAllResults();
+		admission.count();
+	}
+
+	@After // each test
+	public void tearDown() throws Exception {
+		if (null!=own) { own.destroy(); }
+	}
+
+	private void queue(int fromDimension, int toDimension) {
+		for (int dimension=fromDimension; dimension<toDimension; dimension++) {
+			calculator.queueCalculationRequest(ShapeName.CUBE, CalcType.CALC_VOLUME, dimension);
+		}
+	}
+
+	private AdmissionControl admissionControl(AdmissionControl.Policy policy) {
+		own = new AdmissionControl(true, policy, 20, 10, 10000, 5000, 1000, 3600000, 3600000);
+		ctx.getAutowireCapableBeanFactory().autowireBean(own);
+		own.afterPropertiesSet();
+		return own;
+	}
+
+	@Test
+	public void testRejectedAfterWaitingAtHighWatermark() throws Exception {
+		queue(0,20);
+		admission.count();
+
+		long rejected = admission.getRejectedCount();
+		long waited = admission.getWaitedCount();
+		try {
+			queue(20,21);
+			fail("admitted over the high watermark");
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+		assertFalse(admission.getOpen());
+		assertEquals(rejected+1 ,admission.getRejectedCount());
+		assertEquals(waited+1 ,admission.getWaitedCount());
+		assertTrue(admission.getMaxWaitMillis()>=1000);
+		assertEquals(20 ,calculator.getAllPendingRequests().size());
+	}
+
+	@Test
+	public void testAdmittedWithoutCountingWhileOpen() throws Exception {
+		// the count is only taken in the background: over the watermark, but not yet counted, so still open
+		queue(0,25);
+		assertTrue(admission.getOpen());
+		assertEquals(0 ,admission.getPendingCount());
+
+		admission.count();
+		assertFalse(admission.getOpen());
+		assertEquals(25 ,admission.getPendingCount());
+	}
+
+	@Test
+	public void testCheckedByTheKeptNumberWithoutCounting() throws Exception {
+		// what was queued and dequeued since the last count, without another
+		queue(0,25);
+		admission.check();
+		assertFalse(admission.getOpen());
+		assertEquals(25 ,admission.getPendingCount());
+
+		removeRequests(0,15);
+		admission.check();
+		assertTrue(admission.getOpen());
+		assertEquals(10 ,admission.getPendingCount());
+
+		// and a count puts it right, should it have drifted
+		assertEquals(10 ,pendingRequests.getApproximateNumRequests());
+		assertEquals(10 ,pendingRequests.getNumRequests());
+	}
+
+	@Test
+	public void testRejectedAtOnceAtHighWatermark() throws Exception {
+		AdmissionControl reject = admissionControl(AdmissionControl.Policy.REJECT);
+		reject.admit();
+		assertEquals(1 ,reject.getAdmittedCount());
+
+		queue(0,20);
+		reject.count();
+		assertFalse(reject.getOpen());
+		try {
+			reject.admit();
+			fail("admitted over the high watermark");
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+		// turned away without waiting
+		assertEquals(1 ,reject.getRejectedCount());
+		assertEquals(0 ,reject.getWaitedCount());
+		assertEquals(1 ,reject.getAdmittedCount());
+
+		// still closed between the watermarks
+		removeRequests(0,9);
+		reject.count();
+		assertFalse(reject.getOpen());
+
+		removeRequests(9,10);
+		reject.count();
+		assertTrue(reject.getOpen());
+		reject.admit();
+		assertEquals(2 ,reject.getAdmittedCount());
+	}
+
+	@Test
+	public void testBlockedUntilBelowLowWatermark() throws Exception {
+		AdmissionControl block = admissionControl(AdmissionControl.Policy.BLOCK);
+		queue(0,20);
+		block.count();
+		assertFalse(block.getOpen());
+
+		Thread caller = new Thread(block::admit);
+		caller.start();
+		while (0==block.getWaitingCount()) {
+			Thread.yield();
+		}
+
+		// still closed between the watermarks - and the caller still waiting
+		removeRequests(0,9);
+		block.count();
+		assertFalse(block.getOpen());
+		assertEquals(1 ,block.getWaitingCount());
+		assertEquals(0 ,block.getAdmittedCount());
+
+		// and let in once at the low watermark
+		removeRequests(9,10);
+		block.count();
+		caller.join();
+
+		assertTrue(block.getOpen());
+		assertEquals(0 ,block.getWaitingCount());
+		assertEquals(1 ,block.getWaitedCount());
+		assertEquals(1 ,block.getAdmittedCount());
+		assertEquals(0 ,block.getRejectedCount());
+	}
+
+	private void removeRequests(int fromDimension, int toDimension) {
+		List<CalculationRequest> requests = new ArrayList<CalculationRequest>();
+		for (int dimension=fromDimension; dimension<toDimension; dimension++) {
+			requests.add(new CalculationRequest(ShapeName.CUBE, CalcType.CALC_VOLUME, (double)dimension));
+		}
+		pendingRequests.removeRequests(requests);
+	}
+
+}
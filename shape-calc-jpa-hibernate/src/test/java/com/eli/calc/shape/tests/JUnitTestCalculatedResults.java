@@ -1,11 +1,27 @@
 package com.eli.calc.shape.tests;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 //import org.junit.runner.RunWith;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -19,15 +35,20 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.orm.jpa.EntityManagerFactoryUtils;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.eli.calc.shape.config.ShapeCalcBaseContext;
 import com.eli.calc.shape.domain.CalculationRequest;
 import com.eli.calc.shape.domain.CalculationResult;
 import com.eli.calc.shape.model.CalcType;
 import com.eli.calc.shape.model.ShapeName;
+import com.eli.calc.shape.persistence.service.CalculationResultPersistService;
 import com.eli.calc.shape.service.CalculatedResults;
+import com.eli.calc.shape.service.impl.CalculatedResultsImpl;
+import com.eli.calc.shape.service.impl.ResultBloomFilter;
 
 @RunWith(SpringRunner.class)
 @ContextConfiguration(classes={ShapeCalcBaseContext.class})
@@ -39,6 +60,18 @@ public class JUnitTestCalculatedResults  implements ApplicationContextAware {
 
 	@Autowired
 	private CalculatedResults calculatedResults;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	private CalculationResultPersistService resultPersistService;
+
+	@Autowired
+	private ResultBloomFilter filter;
+
+	@Autowired
+	private CalculatedResultsImpl calculatedResultsImpl;
 	
 	@Override
 	public void setApplicationContext(ApplicationContext ctx) {
@@ -76,7 +109,209 @@ public class JUnitTestCalculatedResults  implements ApplicationContextAware {
 		assertEquals(1 ,numResults);
 	}
 
+	@Test
+	public void testputResultAgainIsRejected() {
+		CalculationRequest request = new CalculationRequest( ShapeName.CUBE, CalcType.CALC_AREA, 2.0);
+		calculatedResults.putResult( new CalculationResult(request,24.0));
+		try {
+			calculatedResults.putResult( new CalculationResult(request,99.0));
+			fail("a second result for the same request should be rejected");
+		} catch (RuntimeException e) {
+			// inserted, not merged - the primary key rejects it
+		}
+		// and the stored result stays as it was (the memory and log backends would replace it)
+		assertEquals(1 ,calculatedResults.getResults().size());
+		assertEquals(24.0 ,calculatedResults.getResults(Collections.singletonList(request)).get(request).getResult(),0);
+	}
+
+	@Test
+	public void testReadsRunInReadOnlySessions() {
+		calculatedResults.putResult( new CalculationResult(new CalculationRequest( ShapeName.CUBE, CalcType.CALC_AREA, 3.0),54.0));
+
+		final List<Boolean> readOnly = new ArrayList<Boolean>();
+		resultPersistService.forEachResult(result -> {
+			Session session = EntityManagerFactoryUtils.getTransactionalEntityManager(entityManagerFactory).unwrap(Session.class);
+			readOnly.add(TransactionSynchronizationManager.isCurrentTransactionReadOnly());
+			readOnly.add(session.isDefaultReadOnly());
+		});
+		assertEquals(Arrays.asList(true, true) ,readOnly);
+	}
+
+	@Test
+	public void testputResults() {
+		List<CalculationResult> results = new ArrayList<CalculationResult>();
+		for (int dimension=0; dimension<120; dimension++) {
+			results.add(new CalculationResult(new CalculationRequest( ShapeName.CUBE, CalcType.CALC_VOLUME, (double)dimension),0.0));
+		}
+		calculatedResults.putResults(results);
+		long numResults = calculatedResults.getResults().size();
+		assertEquals(120 ,numResults);
+	}
+
+	@Test
+	public void testputResultsInsertsWithoutSelecting() {
+		List<CalculationResult> results = new ArrayList<CalculationResult>();
+		for (int dimension=0; dimension<120; dimension++) {
+			results.add(new CalculationResult(new CalculationRequest( ShapeName.CUBE, CalcType.CALC_AREA, (double)dimension),6.0*dimension*dimension));
+		}
+
+		Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		boolean wasEnabled = statistics.isStatisticsEnabled();
+		statistics.setStatisticsEnabled(true);
+		try {
+			statistics.clear();
+			calculatedResults.putResults(results);
+
+			// a merge would load (select) each row before inserting it
+			assertEquals(0 ,statistics.getEntityLoadCount());
+			assertEquals(120 ,statistics.getEntityInsertCount());
+			assertTrue(statistics.getPrepareStatementCount()<120);
+		} finally {
+			statistics.setStatisticsEnabled(wasEnabled);
+		}
+		assertEquals(120 ,calculatedResults.getResults().size());
+	}
+
+	@Test
+	public void testForEachResult() {
+		List<CalculationResult> results = new ArrayList<CalculationResult>();
+		for (int dimension=0; dimension<2500; dimension++) {
+			results.add(new CalculationResult(new CalculationRequest( ShapeName.CUBE, CalcType.CALC_AREA, (double)dimension),6.0*dimension*dimension));
+		}
+		calculatedResults.putResults(results);
+
+		final List<CalculationResult> streamed = new ArrayList<CalculationResult>();
+		long numResults = calculatedResults.forEachResult(result -> streamed.add(result));
+		assertEquals(2500 ,numResults);
+		assertEquals(2500 ,streamed.size());
+		assertTrue(streamed.containsAll(results));
+	}
+
+	@Test
+	public void testGetResultsForManyRequests() {
+		List<CalculationResult> results = new ArrayList<CalculationResult>();
+		for (int dimension=0; dimension<1200; dimension++) {
+			results.add(new CalculationResult(new CalculationRequest( ShapeName.SQUARE, CalcType.CALC_AREA, (double)dimension),1.0*dimension*dimension));
+		}
+		results.add(new CalculationResult(new CalculationRequest( ShapeName.CIRCLE, CalcType.CALC_AREA, 1.0),Math.PI));
+		calculatedResults.putResults(results);
+
+		List<CalculationRequest> requests = new ArrayList<CalculationRequest>();
+		for (int dimension=1300; dimension>=0; dimension--) {
+			requests.add(new CalculationRequest( ShapeName.SQUARE, CalcType.CALC_AREA, (double)dimension));
+		}
+		requests.add(new CalculationRequest( ShapeName.CIRCLE, CalcType.CALC_AREA, 1.0));
+		requests.add(new CalculationRequest( ShapeName.CIRCLE, CalcType.CALC_AREA, 2.0));
+
+		Map<CalculationRequest,CalculationResult> found = calculatedResults.getResults(requests);
+		assertEquals(1303 ,found.size());
+		assertEquals(requests ,new ArrayList<CalculationRequest>(found.keySet()));
+		assertNull(found.get(requests.get(0)));
+		assertEquals(1199.0*1199.0 ,found.get(new CalculationRequest( ShapeName.SQUARE, CalcType.CALC_AREA, 1199.0)).getResult(),0);
+		assertEquals(Math.PI ,found.get(new CalculationRequest( ShapeName.CIRCLE, CalcType.CALC_AREA, 1.0)).getResult(),0);
+		assertNull(found.get(new CalculationRequest( ShapeName.CIRCLE, CalcType.CALC_AREA, 2.0)));
+
+		int numFound = 0;
+		for (CalculationResult result : calculatedResults.getResults(requests).values()) {
+			if (null!=result) { numFound++; }
+		}
+		assertEquals(1201 ,numFound);
+	}
+
+	@Test
+	public void testContainsRequestStaysCoherent() {
+		CalculationRequest request = new CalculationRequest( ShapeName.SPHERE, CalcType.CALC_VOLUME, 2.0);
+		assertFalse(calculatedResults.containsRequest(request));
+
+		calculatedResults.putResult( new CalculationResult(request,33.51));
+		assertTrue(calculatedResults.containsRequest(request));
+		assertTrue(calculatedResults.containsRequest(request));
+
+		calculatedResults.deleteAllResults();
+		assertFalse(calculatedResults.containsRequest(request));
+
+		calculatedResults.putResult( new CalculationResult(request,33.51));
+		calculatedResults.removeResult( new CalculationResult(request,33.51));
+		assertFalse(calculatedResults.containsRequest(request));
+	}
 	
+	@Test
+	public void testRebuildFilter() {
+		List<CalculationResult> results = new ArrayList<CalculationResult>();
+		for (int dimension=0; dimension<50; dimension++) {
+			results.add(new CalculationResult(new CalculationRequest( ShapeName.SQUARE, CalcType.CALC_AREA, (double)dimension),1.0*dimension*dimension));
+		}
+		calculatedResults.putResults(results);
+
+		filter.clear();
+		assertFalse(calculatedResults.containsRequest(results.get(0).getRequest()));
+
+		calculatedResultsImpl.rebuildFilter();
+		for (CalculationResult result : results) {
+			assertTrue(filter.mightContain(result.getRequest()));
+			assertTrue(calculatedResults.containsRequest(result.getRequest()));
+		}
+	}
+
+	@Test
+	public void testStoredResultsStayInFilterDuringConcurrentDeletes() throws Exception {
+		ExecutorService writers = Executors.newFixedThreadPool(4);
+		try {
+			final AtomicBoolean stop = new AtomicBoolean();
+			List<Future<?>> puts = new ArrayList<Future<?>>();
+			for (int w=0; w<3; w++) {
+				final ShapeName shape = ShapeName.values()[w];
+				puts.add(writers.submit(() -> {
+					for (int dimension=0; dimension<300; dimension++) {
+						calculatedResults.putResult(new CalculationResult(new CalculationRequest(shape, CalcType.CALC_AREA, (double)dimension),(double)dimension));
+					}
+				}));
+			}
+			Future<?> deletes = writers.submit(() -> {
+				while (!stop.get()) { calculatedResults.deleteAllResults(); }
+			});
+			for (Future<?> f : puts) { f.get(); }
+			stop.set(true);
+			deletes.get();
+		} finally {
+			writers.shutdownNow();
+		}
+
+		// whatever survived the deletes must not be a definite miss
+		for (CalculationResult result : calculatedResults.getResults()) {
+			assertTrue(filter.mightContain(result.getRequest()));
+		}
+	}
+
+	@Test
+	public void testRemovedResultNotCachedByConcurrentLookup() throws Exception {
+		final CalculationRequest request = new CalculationRequest( ShapeName.SPHERE, CalcType.CALC_AREA, 4.0);
+		final CalculationResult result = new CalculationResult(request,201.06);
+
+		ExecutorService readers = Executors.newFixedThreadPool(4);
+		try {
+			for (int i=0; i<200; i++) {
+				calculatedResults.putResult(result);
+
+				// lookups that find the stored row race with its removal
+				final AtomicBoolean stop = new AtomicBoolean();
+				List<Future<?>> lookups = new ArrayList<Future<?>>();
+				for (int r=0; r<4; r++) {
+					lookups.add(readers.submit(() -> {
+						while (!stop.get()) { calculatedResults.containsRequest(request); }
+					}));
+				}
+				calculatedResults.removeResult(result);
+				stop.set(true);
+				for (Future<?> f : lookups) { f.get(); }
+
+				assertFalse(calculatedResults.containsRequest(request));
+			}
+		} finally {
+			readers.shutdownNow();
+		}
+	}
+
 	@Test
 	public void testResultsForExceptionsDuringPossibleRaceConditions() {
 
@@ -0,0 +1,172 @@
+package com.eli.calc.shape.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.eli.calc.shape.config.ShapeCalcBaseContext;
+import com.eli.calc.shape.domain.CalculationRequest;
+import com.eli.calc.shape.domain.CalculationResult;
+import com.eli.calc.shape.model.CalcType;
+import com.eli.calc.shape.model.ShapeName;
+import com.eli.calc.shape.persistence.service.CalculationResultPersistService;
+import com.eli.calc.shape.service.CalculatedResults;
+import com.eli.calc.shape.service.PendingRequests;
+import com.eli.calc.shape.service.ShapeCalculatorService;
+import com.eli.calc.shape.service.impl.ResultCache;
+
+/**
+ * what a run keeps, and what it gives up, when storing one chunk fails
+ */
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes={ShapeCalcBaseContext.class, JUnitTestChunkedDrain.FailingStores.class, TaskThreads.class})
+@TestPropertySource(properties={"calculator.drain.chunk.size=10","calculator.persist.batch.size=4"})
+public class JUnitTestChunkedDrain {
+
+	//storing a batch with a result for this request fails
+	private static volatile CalculationRequest unstorable;
+
+	//not a @Configuration - the calculator's component scan would pick it up for every context
+	static class FailingStores {
+
+		@Bean
+		public static BeanPostProcessor failingStores() {
+			return new BeanPostProcessor() {
+
+				@Override
+				public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+					return bean;
+				}
+
+				@Override
+				public Object postProcessAfterInitialization(final Object bean, String beanName) throws BeansException {
+					if (!(bean instanceof CalculationResultPersistService)) { return bean; }
+
+					return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { CalculationResultPersistService.class }, (proxy, method, args) -> {
+						if ("saveResults".equals(method.getName()) && null!=unstorable) {
+							for (Object result : (Collection<?>)args[0]) {
+								if (unstorable.equals(((CalculationResult)result).getRequest())) {
+									throw new IllegalStateException("can not store "+unstorable);
+								}
+							}
+						}
+						try {
+							return method.invoke(bean, args);
+						} catch (InvocationTargetException e) {
+							throw e.getCause();
+						}
+					});
+				}
+			};
+		}
+	}
+
+	@Autowired
+	private ShapeCalculatorService calculator;
+
+	@Autowired
+	private PendingRequests pendingRequests;
+
+	@Autowired
+	private CalculatedResults calculatedResults;
+
+	@Autowired
+	private ResultCache resultCache;
+
+	@Before // each test
+	public void setUp() throws Exception {
+		unstorable = null;
+		calculator.deleteAllPendingRequests();
+		calculator.deleteAllResults();
+		TaskThreads.clear();
+	}
+
+	@After // each test
+	public void tearDown() throws Exception {
+		unstorable = null;
+	}
+
+	@Test
+	public void testFailedChunkIsRolledBackAndEarlierChunksKept() {
+
+		// three chunks, in key (dimension) order: 1-10, 11-20, 21-30
+		for (int i = 1; i <= 30; i++) {
+			calculator.queueCalculationRequest(ShapeName.SQUARE, CalcType.CALC_AREA, (double)i);
+		}
+		// the second chunk fails in whichever of its batches (of 4) holds this one - those before it are rolled back with it
+		unstorable = new CalculationRequest(ShapeName.SQUARE, CalcType.CALC_AREA, 20.0);
+
+		try {
+			calculator.runAllPendingRequestsNoStopOnError();
+			fail("the run should fail with the chunk it could not store");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		for (int i = 1; i <= 30; i++) {
+			CalculationRequest request = new CalculationRequest(ShapeName.SQUARE, CalcType.CALC_AREA, (double)i);
+			if (i <= 10) {
+				// committed before the failure, and cached once it was
+				assertNotNull(request.toString(), resultCache.get(request));
+			} else {
+				// rolled back (or never run) - so not cached either
+				assertNull(request.toString(), resultCache.get(request));
+			}
+		}
+
+		assertEquals(10 ,calculatedResults.getResults().size());
+		assertEquals(20 ,pendingRequests.getNumRequests());
+		for (CalculationRequest request : pendingRequests.getRequests()) {
+			assertTrue(request.toString(), request.getDimension()>10);
+		}
+
+		// and the next run picks up from there
+		unstorable = null;
+		assertEquals(20 ,calculator.runAllPendingRequestsNoStopOnError());
+		assertEquals(30 ,calculatedResults.getResults().size());
+		assertEquals(0 ,pendingRequests.getNumRequests());
+	}
+
+	@Test
+	public void testStoppedChunkLeavesNoTaskRunning() {
+
+		// one chunk: the bad request fails at once (no latency), while the squares still wait
+		pendingRequests.putRequest(new CalculationRequest(ShapeName.EQUILATERALTRIANGLE, CalcType.CALC_VOLUME, -1.0));
+		for (int i = 1; i <= 9; i++) {
+			calculator.queueCalculationRequest(ShapeName.SQUARE, CalcType.CALC_AREA, (double)i);
+		}
+
+		try {
+			calculator.runAllPendingRequestsStopOnError();
+			fail("the run should stop on the bad request");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		// nothing still calculating once their claims are given up - and what was
+		// not taken before the stop is neither stored nor taken off the queue
+		assertEquals(0 ,TaskThreads.numUnderWay.get());
+		assertEquals(9 ,calculatedResults.getResults().size() + pendingRequests.getNumRequests());
+
+		assertEquals(pendingRequests.getNumRequests() ,calculator.runAllPendingRequestsNoStopOnError());
+		assertEquals(9 ,calculatedResults.getResults().size());
+	}
+}
@@ -0,0 +1,102 @@
+package com.eli.calc.shape.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import com.eli.calc.shape.config.ShapeCalcBaseContext;
+import com.eli.calc.shape.domain.CalculationRequest;
+import com.eli.calc.shape.domain.CalculationResult;
+import com.eli.calc.shape.model.CalcType;
+import com.eli.calc.shape.model.ShapeName;
+import com.eli.calc.shape.service.ShapeCalculatorService;
+
+/**
+ * Fills a database on the (shapename, calctype, dimension) key, then restarts
+ * on the compact key with persist.compact.keys.migrate=true and reads it back.
+ * 
+ * The database is its own, and the contexts are made here,
+ * as each needs different settings and the second must start after the first.
+ */
+public class JUnitTestCompactKeyMigration {
+
+	private static final String URL = "jdbc:mysql://localhost:3306/shapecalc_migrate?createDatabaseIfNotExist=true&rewriteBatchedStatements=true&useCursorFetch=true&useLocalSessionState=true&useAffectedRows=true";
+
+	private static AnnotationConfigApplicationContext startContext(boolean compactKeys, String hbm2ddl) {
+
+		Map<String,Object> properties = new HashMap<String,Object>();
+		properties.put("jdbc.url", URL);
+		properties.put("hibernate.hbm2ddl.auto", hbm2ddl);
+		properties.put("persist.compact.keys", String.valueOf(compactKeys));
+		properties.put("persist.compact.keys.migrate", String.valueOf(compactKeys));
+
+		AnnotationConfigApplicationContext ctx = new AnnotationConfigApplicationContext();
+		ctx.getEnvironment().getPropertySources().addFirst(new MapPropertySource("migration", properties));
+		ctx.register(ShapeCalcBaseContext.class);
+		ctx.refresh();
+		return ctx;
+	}
+
+	@Test
+	public void testMigratePopulatedTables() {
+
+		List<CalculationRequest> pending;
+		List<CalculationResult> results;
+
+		// the old key, from fresh tables
+		AnnotationConfigApplicationContext legacy = startContext(false, "create");
+		try {
+			ShapeCalculatorService calculator = legacy.getBean(ShapeCalculatorService.class);
+			for (ShapeName shapeName : ShapeName.values()) {
+				for (double dimension : new double[] { 0.0, 0.1, 1.0, 2.5, 1e10 }) {
+					calculator.queueCalculationRequest(shapeName, CalcType.CALC_AREA, dimension);
+				}
+			}
+			calculator.runAllPendingRequestsNoStopOnError();
+			for (ShapeName shapeName : ShapeName.values()) {
+				for (double dimension : new double[] { 0.0, 0.3, 7.0 }) {
+					calculator.queueCalculationRequest(shapeName, CalcType.CALC_VOLUME, dimension);
+				}
+			}
+			pending = calculator.getAllPendingRequests();
+			results = calculator.getAllCalculatedResults();
+		} finally {
+			legacy.close();
+		}
+		assertEquals(ShapeName.values().length * 3 ,pending.size());
+		assertEquals(ShapeName.values().length * 5 ,results.size());
+
+		// the compact key, converting those tables at startup
+		AnnotationConfigApplicationContext compact = startContext(true, "update");
+		try {
+			ShapeCalculatorService calculator = compact.getBean(ShapeCalculatorService.class);
+
+			assertEquals(new HashSet<CalculationRequest>(pending) ,new HashSet<CalculationRequest>(calculator.getAllPendingRequests()));
+			assertEquals(new HashSet<CalculationResult>(results) ,new HashSet<CalculationResult>(calculator.getAllCalculatedResults()));
+			for (CalculationResult result : results) {
+				CalculationResult found = calculator.getCalculatedResults(Collections.singletonList(result.getRequest())).get(result.getRequest());
+				assertEquals(result.getResult() ,found.getResult());
+			}
+
+			// and the migrated rows are keyed as new ones would be
+			calculator.queueCalculationRequest(ShapeName.CIRCLE, CalcType.CALC_AREA, 0.1);
+			calculator.queueCalculationRequest(ShapeName.CIRCLE, CalcType.CALC_VOLUME, 0.3);
+			assertEquals(pending.size() ,calculator.getAllPendingRequests().size());
+
+			calculator.runAllPendingRequestsNoStopOnError();
+			assertTrue(calculator.getAllPendingRequests().isEmpty());
+			assertEquals(results.size() + pending.size() ,calculator.getAllCalculatedResults().size());
+		} finally {
+			compact.close();
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package com.eli.calc.shape.tests;
+
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * the calculator tests again, on the compact numeric primary key -
+ * in a database of its own, as the two keys need different tables
+ */
+@TestPropertySource(properties={
+		"persist.compact.keys=true",
+		"jdbc.url=jdbc:mysql://localhost:3306/shapecalc_compact?createDatabaseIfNotExist=true&rewriteBatchedStatements=true&useCursorFetch=true&useLocalSessionState=true&useAffectedRows=true"})
+public class JUnitTestCompactKeys extends JUnitTest {
+
+}
@@ -0,0 +1,44 @@
+package com.eli.calc.shape.tests;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.TestPropertySource;
+
+import com.eli.calc.shape.domain.CalculationResult;
+
+/**
+ * the second-level cache tests again, on the compact key mapping -
+ * which must still declare the results immutable and read-only cached
+ */
+@TestPropertySource(properties={
+		"persist.compact.keys=true",
+		"jdbc.url=jdbc:mysql://localhost:3306/shapecalc_compact?createDatabaseIfNotExist=true&rewriteBatchedStatements=true&useCursorFetch=true&useLocalSessionState=true&useAffectedRows=true"})
+public class JUnitTestCompactKeysSecondLevelCache extends JUnitTestSecondLevelCache {
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Test
+	public void testResultsMappedImmutableAndReadOnlyCached() {
+
+		EntityPersister persister = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+				.getEntityPersister(CalculationResult.class.getName());
+
+		assertFalse(persister.isMutable());
+		assertTrue(persister.hasCache());
+		try {
+			// only a read-only strategy refuses to update a cached entry
+			persister.getCacheAccessStrategy().update(null, 1, "result", null, null);
+			fail("the results region is not read-only");
+		} catch (UnsupportedOperationException e) {
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package com.eli.calc.shape.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.eli.calc.shape.config.ShapeCalcBaseContext;
+import com.eli.calc.shape.domain.CalculationRequest;
+import com.eli.calc.shape.model.CalcType;
+import com.eli.calc.shape.model.ShapeName;
+import com.eli.calc.shape.service.PendingRequests;
+import com.eli.calc.shape.service.ShapeCalculatorService;
+import com.eli.calc.shape.service.impl.RequestDispatcher;
+
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes={ShapeCalcBaseContext.class, TaskThreads.class})
+public class JUnitTestDispatcher {
+
+	@Autowired
+	private ShapeCalculatorService calculator;
+
+	@Autowired
+	private RequestDispatcher dispatcher;
+
+	@Autowired
+	private PendingRequests pendingRequests;
+
+	@Before // each test
+	public void setUp() throws Exception {
+		calculator.deleteAllPendingRequests();
+		calculator.deleteAllResults();
+	}
+
+	@After // each test
+	public void tearDown() throws Exception {
+		dispatcher.stop();
+	}
+
+	private void awaitResults(int numResults) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+		while (calculator.getAllCalculatedResults().size()<numResults && System.nanoTime()<deadline) {
+			Thread.sleep(50);
+		}
+		assertEquals(numResults ,calculator.getAllCalculatedResults().size());
+	}
+
+	@Test
+	public void testQueuedRequestsRunWithoutADrain() throws Exception {
+		dispatcher.start();
+		assertTrue(dispatcher.isRunning());
+
+		for (int dimension=0; dimension<50; dimension++) {
+			calculator.queueCalculationRequest(ShapeName.CUBE, CalcType.CALC_AREA, dimension);
+		}
+
+		awaitResults(50);
+		assertEquals(0 ,calculator.getAllPendingRequests().size());
+
+		dispatcher.stop();
+		assertFalse(dispatcher.isRunning());
+	}
+
+	@Test
+	public void testPauseAndResume() throws Exception {
+		dispatcher.start();
+		dispatcher.pause();
+
+		for (int dimension=0; dimension<10; dimension++) {
+			calculator.queueCalculationRequest(ShapeName.SPHERE, CalcType.CALC_VOLUME, dimension);
+		}
+		Thread.sleep(300);
+		assertEquals(10 ,calculator.getAllPendingRequests().size());
+
+		dispatcher.resume();
+		awaitResults(10);
+		assertEquals(0 ,calculator.getAllPendingRequests().size());
+	}
+
+	@Test
+	public void testSlotGivenBackWhenDispatchFails() throws Exception {
+		// queued past the argument checks, so calculateAsync() throws rather than fails its future
+		pendingRequests.putRequest(new CalculationRequest(ShapeName.CUBE, CalcType.CALC_AREA, -1.0));
+
+		long failed = dispatcher.getFailedCount();
+		dispatcher.start();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+		while (dispatcher.getFailedCount()==failed && System.nanoTime()<deadline) {
+			Thread.sleep(10);
+		}
+		dispatcher.stop();
+
+		assertTrue(dispatcher.getFailedCount()>failed);
+		assertEquals(0 ,dispatcher.getInFlightCount());
+	}
+
+	@Test
+	public void testNoRequestRunTwice() throws Exception {
+		for (int dimension=0; dimension<30; dimension++) {
+			calculator.queueCalculationRequest(ShapeName.TETRAHEDRON, CalcType.CALC_AREA, dimension);
+		}
+
+		// the dispatcher and three runs of the queue, all at once: each request
+		// is calculated once, so no result is stored twice
+		TaskThreads.clear();
+		dispatcher.start();
+		ExecutorService runners = Executors.newFixedThreadPool(3);
+		List<Future<Integer>> runs = new ArrayList<Future<Integer>>();
+		for (int i=0; i<3; i++) {
+			runs.add(runners.submit(() -> calculator.runAllPendingRequestsNoStopOnError()));
+		}
+		for (Future<Integer> run : runs) {
+			run.get();
+		}
+		runners.shutdown();
+
+		awaitResults(30);
+		assertEquals(0 ,calculator.getAllPendingRequests().size());
+		assertEquals(30 ,TaskThreads.numCalculated.get());
+	}
+
+}
@@ -0,0 +1,111 @@
+package com.eli.calc.shape.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.context.TestPropertySource;
+
+import com.eli.calc.shape.domain.CalculationRequest;
+import com.eli.calc.shape.model.CalcType;
+import com.eli.calc.shape.model.ShapeName;
+import com.eli.calc.shape.service.ShapeCalculatorService;
+import com.eli.calc.shape.service.impl.RequestGroupCommit;
+
+/**
+ * the calculator tests again, with enqueues group committed
+ */
+@TestPropertySource(properties={"calculator.enqueue.group.commit.enabled=true","calculator.drain.chunk.size=40"})
+public class JUnitTestGroupCommit extends JUnitTest {
+
+	@Autowired
+	private ShapeCalculatorService calculator;
+
+	@Autowired
+	private RequestGroupCommit groupCommit;
+
+	@Autowired
+	private ApplicationContext ctx;
+
+	@Test
+	public void testConcurrentEnqueuesShareCommits() throws Exception {
+
+		long requestsBefore = groupCommit.getRequestCount();
+
+		ExecutorService producers = Executors.newFixedThreadPool(16);
+		List<Future<?>> done = new ArrayList<Future<?>>();
+		for (int producer=0; producer<16; producer++) {
+			final int first = producer * 50;
+			done.add(producers.submit(() -> {
+				for (int i=first; i<first+50; i++) {
+					calculator.queueCalculationRequest(ShapeName.TETRAHEDRON, CalcType.CALC_VOLUME, i);
+					calculator.queueCalculationRequest(ShapeName.TETRAHEDRON, CalcType.CALC_VOLUME, i % 10);
+				}
+			}));
+		}
+		for (Future<?> f : done) {
+			f.get(); // each enqueue returned only after its commit
+		}
+		producers.shutdown();
+
+		assertEquals(800,calculator.getAllPendingRequests().size());
+		// every enqueue went through the group commit
+		assertEquals(1600,groupCommit.getRequestCount() - requestsBefore);
+	}
+
+	/**
+	 * a group commit of its own, with a window wide enough that
+	 * callers arriving together are always committed together
+	 */
+	private RequestGroupCommit startGroupCommit(long windowMicros) {
+		RequestGroupCommit wide = new RequestGroupCommit(true, windowMicros, 500);
+		ctx.getAutowireCapableBeanFactory().autowireBean(wide);
+		wide.afterPropertiesSet();
+		return wide;
+	}
+
+	@Test
+	public void testCallersArrivingTogetherShareACommit() throws Exception {
+
+		RequestGroupCommit wide = startGroupCommit(50000);
+		ExecutorService producers = Executors.newFixedThreadPool(16);
+		try {
+			List<Future<?>> done = new ArrayList<Future<?>>();
+			for (int producer=0; producer<16; producer++) {
+				final int first = producer * 20;
+				done.add(producers.submit(() -> {
+					for (int i=first; i<first+20; i++) {
+						wide.enqueue(new CalculationRequest(ShapeName.CUBE, CalcType.CALC_AREA, (double)i));
+					}
+				}));
+			}
+			for (Future<?> f : done) {
+				f.get();
+			}
+		} finally {
+			producers.shutdown();
+			wide.destroy();
+		}
+
+		assertEquals(320,calculator.getAllPendingRequests().size());
+		assertEquals(320,wide.getRequestCount());
+		// one commit each would average 1
+		assertTrue(wide.getAverageBatchSize() > 1.5);
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testEnqueueOnceStopped() throws Exception {
+
+		RequestGroupCommit stopped = startGroupCommit(0);
+		stopped.destroy();
+		stopped.enqueue(new CalculationRequest(ShapeName.CUBE, CalcType.CALC_AREA, 1.0));
+	}
+}
@@ -0,0 +1,79 @@
+package com.eli.calc.shape.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
+import org.junit.Test;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.context.TestPropertySource;
+
+import com.eli.calc.shape.domain.CalculationRequest;
+import com.eli.calc.shape.domain.CalculationResult;
+import com.eli.calc.shape.model.CalcType;
+import com.eli.calc.shape.model.ShapeName;
+import com.eli.calc.shape.persistence.service.CalculationRequestPersistService;
+import com.eli.calc.shape.persistence.service.CalculationResultPersistService;
+import com.eli.calc.shape.persistence.service.impl.InMemoryCalculationRequestPersistServiceImpl;
+import com.eli.calc.shape.persistence.service.impl.InMemoryCalculationResultPersistServiceImpl;
+import com.eli.calc.shape.service.CalculatedResults;
+import com.eli.calc.shape.service.ShapeCalculatorService;
+
+/**
+ * the calculator tests again, against the in-memory
+ * persistence backend (no database required)
+ */
+@TestPropertySource(properties={"persist.backend=memory"})
+public class JUnitTestMemoryBackend extends JUnitTest {
+
+	@Autowired
+	private CalculatedResults calculatedResults;
+
+	@Autowired
+	private ShapeCalculatorService calculator;
+
+	@Autowired
+	private CalculationRequestPersistService requestPersistService;
+
+	@Autowired
+	private CalculationResultPersistService resultPersistService;
+
+	@Autowired
+	private ApplicationContext ctx;
+
+	@Test
+	public void testRunsWithoutTheDatabase() {
+
+		assertEquals(InMemoryCalculationRequestPersistServiceImpl.class ,AopUtils.getTargetClass(requestPersistService));
+		assertEquals(InMemoryCalculationResultPersistServiceImpl.class ,AopUtils.getTargetClass(resultPersistService));
+		// none of the jpa backend is even created
+		assertTrue(ctx.getBeansOfType(EntityManagerFactory.class).isEmpty());
+		assertTrue(ctx.getBeansOfType(DataSource.class).isEmpty());
+
+		for (int i=1; i<=50; i++) {
+			calculator.queueCalculationRequest(ShapeName.CIRCLE, CalcType.CALC_AREA, i);
+		}
+		assertEquals(50 ,calculator.runAllPendingRequestsNoStopOnError());
+
+		// stored in, and read back from, memory
+		assertEquals(0 ,requestPersistService.getNumRequests());
+		assertEquals(50 ,resultPersistService.getAllResults().size());
+	}
+
+	@Test
+	public void testputResultAgainReplaces() {
+		CalculationRequest request = new CalculationRequest(ShapeName.CUBE, CalcType.CALC_AREA, 2.0);
+		calculatedResults.putResult(new CalculationResult(request, 24.0));
+		calculatedResults.putResult(new CalculationResult(request, 99.0));
+
+		// unlike the jpa backend, which rejects the second
+		assertEquals(1 ,calculatedResults.getResults().size());
+		assertEquals(99.0 ,calculatedResults.getResults(Collections.singletonList(request)).get(request).getResult(),0);
+	}
+}
@@ -1,10 +1,19 @@
 package com.eli.calc.shape.tests;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 //import org.junit.runner.RunWith;
 import org.junit.After;
@@ -91,6 +100,142 @@ public class JUnitTestPendingRequests  implements ApplicationContextAware {
 		assertEquals(1 ,numRequests);
 	}
 
+	@Test
+	public void testputAndRemoveRequests() {
+		List<CalculationRequest> requests = new ArrayList<CalculationRequest>();
+		for (int dimension=0; dimension<120; dimension++) {
+			requests.add(new CalculationRequest(ShapeName.CUBE, CalcType.CALC_VOLUME, (double)dimension));
+		}
+		pendingRequests.putRequests(requests);
+		assertEquals(120 ,pendingRequests.getNumRequests());
+
+		pendingRequests.removeRequests(requests.subList(0, 100));
+		assertEquals(20 ,pendingRequests.getNumRequests());
+	}
+
+	@Test
+	public void testApproximateNumRequestsKeptUp() {
+		assertEquals(0 ,pendingRequests.getApproximateNumRequests());
+
+		List<CalculationRequest> requests = new ArrayList<CalculationRequest>();
+		for (int dimension=0; dimension<10; dimension++) {
+			requests.add(new CalculationRequest(ShapeName.CUBE, CalcType.CALC_VOLUME, (double)dimension));
+		}
+		assertEquals(10 ,pendingRequests.importRequests(requests));
+		// already pending - not counted again
+		assertEquals(0 ,pendingRequests.importRequests(requests.subList(0, 5)));
+		assertFalse(pendingRequests.putRequestIfAbsent(requests.get(0)));
+		assertEquals(10 ,pendingRequests.getApproximateNumRequests());
+
+		// only what was really there is taken off
+		List<CalculationRequest> removed = new ArrayList<CalculationRequest>(requests.subList(0, 4));
+		removed.add(new CalculationRequest(ShapeName.SQUARE, CalcType.CALC_AREA, 7.0));
+		pendingRequests.removeRequests(removed);
+		assertEquals(6 ,pendingRequests.getApproximateNumRequests());
+		assertEquals(6 ,pendingRequests.getNumRequests());
+	}
+
+	@Test
+	public void testRemoveRequestsOfMixedKinds() {
+		List<CalculationRequest> requests = new ArrayList<CalculationRequest>();
+		for (int dimension=0; dimension<1200; dimension++) {
+			requests.add(new CalculationRequest(ShapeName.CUBE, CalcType.CALC_VOLUME, (double)dimension));
+			requests.add(new CalculationRequest(ShapeName.CIRCLE, CalcType.CALC_AREA, (double)dimension));
+		}
+		requests.add(new CalculationRequest(ShapeName.SPHERE, CalcType.CALC_AREA, 0.5));
+		pendingRequests.putRequests(requests);
+		assertEquals(2401 ,pendingRequests.getNumRequests());
+
+		// every other cube and circle, spanning more than one lookup chunk, plus the sphere
+		List<CalculationRequest> removed = new ArrayList<CalculationRequest>();
+		for (int i=0; i<2400; i+=4) {
+			removed.add(requests.get(i));
+			removed.add(requests.get(i+1));
+		}
+		removed.add(requests.get(2400));
+		// requests never queued are ignored
+		removed.add(new CalculationRequest(ShapeName.SQUARE, CalcType.CALC_AREA, 7.0));
+		pendingRequests.removeRequests(removed);
+
+		List<CalculationRequest> remaining = pendingRequests.getRequests();
+		assertEquals(1200 ,remaining.size());
+		for (CalculationRequest cr : removed) {
+			assertFalse(remaining.contains(cr));
+		}
+	}
+
+	@Test
+	public void testImportRequestsRacingAConcurrentInsert() {
+		final List<CalculationRequest> requests = new ArrayList<CalculationRequest>();
+		for (int dimension=0; dimension<120; dimension++) {
+			requests.add(new CalculationRequest(ShapeName.CUBE, CalcType.CALC_AREA, (double)dimension));
+		}
+		final CalculationRequest raced = requests.get(60);
+
+		// the import checks which requests are pending, then inserts the rest:
+		// another producer queues one of them in between (on the second pass over them),
+		// so the batch insert fails and the import falls back to one at a time
+		Collection<CalculationRequest> racing = new AbstractCollection<CalculationRequest>() {
+			private int numPasses = 0;
+			@Override
+			public Iterator<CalculationRequest> iterator() {
+				if (2 == ++numPasses) { pendingRequests.putRequest(raced); }
+				return requests.iterator();
+			}
+			@Override
+			public int size() {
+				return requests.size();
+			}
+		};
+
+		assertEquals(119 ,pendingRequests.importRequests(racing));
+		assertEquals(120 ,pendingRequests.getNumRequests());
+		assertEquals(new HashSet<CalculationRequest>(requests) ,new HashSet<CalculationRequest>(pendingRequests.getRequests()));
+	}
+
+	@Test
+	public void testUncalculatedRequestsPages() {
+		List<CalculationRequest> requests = new ArrayList<CalculationRequest>();
+		for (int dimension=0; dimension<25; dimension++) {
+			requests.add(new CalculationRequest(ShapeName.SQUARE, CalcType.CALC_AREA, (double)dimension));
+		}
+		pendingRequests.putRequests(requests);
+
+		List<CalculationRequest> paged = new ArrayList<CalculationRequest>();
+		List<CalculationRequest> page = pendingRequests.getUncalculatedRequestsPage(null, 10);
+		while (!page.isEmpty()) {
+			assertTrue(page.size()<=10);
+			paged.addAll(page);
+			page = pendingRequests.getUncalculatedRequestsPage(page.get(page.size()-1), 10);
+		}
+		assertEquals(pendingRequests.getUncalculatedRequests() ,paged);
+	}
+
+	@Test
+	public void testputRequestIfAbsent() throws Exception {
+		final CalculationRequest request = new CalculationRequest(ShapeName.SPHERE, CalcType.CALC_AREA, 2.5);
+
+		assertTrue(pendingRequests.putRequestIfAbsent(request));
+		assertFalse(pendingRequests.putRequestIfAbsent(request));
+		assertEquals(1 ,pendingRequests.getNumRequests());
+
+		// concurrent producers of the same new request: exactly one inserts it, none fail
+		final CalculationRequest contended = new CalculationRequest(ShapeName.SPHERE, CalcType.CALC_AREA, 3.5);
+		ExecutorService producers = Executors.newFixedThreadPool(8);
+		List<Future<Boolean>> inserted = new ArrayList<Future<Boolean>>();
+		for (int i=0; i<8; i++) {
+			inserted.add(producers.submit(() -> pendingRequests.putRequestIfAbsent(contended)));
+		}
+		int numInserted = 0;
+		for (Future<Boolean> f : inserted) {
+			if (f.get()) { numInserted++; }
+		}
+		producers.shutdown();
+
+		assertEquals(1 ,numInserted);
+		assertEquals(2 ,pendingRequests.getNumRequests());
+	}
+
 	
 	@Test
 	public void testRequestsForExceptionsDuringPossibleRaceConditions() {
@@ -0,0 +1,54 @@
+package com.eli.calc.shape.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+
+import com.eli.calc.shape.model.CalcType;
+import com.eli.calc.shape.model.ShapeName;
+import com.eli.calc.shape.service.ShapeCalculatorService;
+import com.eli.calc.shape.service.impl.ResultPersistStage;
+
+/**
+ * the calculator tests again, with each task persisting its own result
+ */
+@ContextConfiguration(classes={TaskThreads.class})
+@TestPropertySource(properties={"calculator.persist.in.task.enabled=true","calculator.persist.in.task.max.concurrent=4"})
+public class JUnitTestPersistInTask extends JUnitTest {
+
+	@Autowired
+	private ShapeCalculatorService calculator;
+
+	@Autowired
+	private ResultPersistStage persistStage;
+
+	@Test
+	public void testTasksPersistTheirOwnResults() {
+
+		TaskThreads.clear();
+		long persistedBefore = persistStage.getPersistedCount();
+
+		for (int i=0; i<200; i++) {
+			calculator.queueCalculationRequest(ShapeName.CUBE, CalcType.CALC_VOLUME, i);
+		}
+		assertEquals(200,calculator.runAllPendingRequestsNoStopOnError());
+
+		assertEquals(200,persistStage.getPersistedCount()-persistedBefore);
+		assertTrue(persistStage.getActiveCount()==0);
+		assertEquals(0,calculator.getAllPendingRequests().size());
+		assertEquals(200,calculator.getAllCalculatedResults().size());
+
+		// stored by the tasks, on the threads they calculated on - not by the thread running the queue -
+		// and never more at once than the stage allows
+		assertFalse(TaskThreads.storing.isEmpty());
+		assertFalse(TaskThreads.storing.contains(Thread.currentThread()));
+		assertTrue(TaskThreads.waiting.containsAll(TaskThreads.storing));
+		assertTrue(TaskThreads.storing.size()>1);
+		assertTrue(TaskThreads.maxStoringAtOnce.get()<=4);
+	}
+}
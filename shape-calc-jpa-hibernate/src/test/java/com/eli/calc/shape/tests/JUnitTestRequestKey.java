@@ -0,0 +1,102 @@
+package com.eli.calc.shape.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.eli.calc.shape.domain.CalculationRequest;
+import com.eli.calc.shape.domain.RequestKey;
+import com.eli.calc.shape.model.CalcType;
+import com.eli.calc.shape.model.ShapeName;
+
+public class JUnitTestRequestKey {
+
+	private static final double[] DIMENSIONS = {
+			0.0, -0.0, 1.0, 0.1, 0.5, 2.5, 1e-300, 1e300,
+			Double.MIN_VALUE, Double.MIN_NORMAL, Double.MAX_VALUE,
+			Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NaN,
+			Math.nextUp(1.0), Math.nextDown(1.0), -1.0 };
+
+	@Test
+	public void testRoundTripEveryKindAndDimension() {
+
+		Set<RequestKey> keys = new HashSet<RequestKey>();
+		for (ShapeName shapeName : ShapeName.values()) {
+			for (CalcType calcType : CalcType.values()) {
+				for (double dimension : DIMENSIONS) {
+
+					RequestKey key = RequestKey.of(shapeName,calcType,dimension);
+					assertEquals(shapeName ,key.getShapeName());
+					assertEquals(calcType ,key.getCalcType());
+					assertEquals(Double.doubleToLongBits(dimension) ,Double.doubleToLongBits(key.getDimension()));
+
+					RequestKey decoded = RequestKey.valueOf(key.getKind(),key.getDimensionBits());
+					assertEquals(key ,decoded);
+					assertEquals(key.hashCode() ,decoded.hashCode());
+					assertEquals(0 ,key.compareTo(decoded));
+
+					CalculationRequest request = new CalculationRequest(shapeName,calcType,dimension);
+					assertEquals(key ,RequestKey.of(request));
+					assertEquals(request ,key.toRequest());
+
+					assertTrue(keys.add(key));
+				}
+			}
+		}
+		// no two (shape, calc type, dimension) share a key
+		assertEquals(ShapeName.values().length * CalcType.values().length * DIMENSIONS.length ,keys.size());
+	}
+
+	@Test
+	public void testEqualsLikeDoubleEquals() {
+		// Double.equals() tells the zeroes apart, and takes NaN as equal to itself
+		assertNotEquals(RequestKey.of(ShapeName.CIRCLE,CalcType.CALC_AREA,0.0),
+				RequestKey.of(ShapeName.CIRCLE,CalcType.CALC_AREA,-0.0));
+		assertEquals(RequestKey.of(ShapeName.CIRCLE,CalcType.CALC_AREA,Double.NaN),
+				RequestKey.of(ShapeName.CIRCLE,CalcType.CALC_AREA,0.0/0.0));
+	}
+
+	@Test
+	public void testOrderingOfQueueableDimensions() {
+		for (ShapeName shapeName : ShapeName.values()) {
+			for (CalcType calcType : CalcType.values()) {
+				for (double a : DIMENSIONS) {
+					for (double b : DIMENSIONS) {
+						// only zero or positive dimensions can be queued
+						if (!(a>=0) || !(b>=0) || 0!=Double.compare(a,Math.abs(a)) || 0!=Double.compare(b,Math.abs(b))) { continue; }
+						assertEquals(Integer.signum(Double.compare(a,b)),
+								Integer.signum(RequestKey.of(shapeName,calcType,a).compareTo(RequestKey.of(shapeName,calcType,b))));
+					}
+				}
+			}
+		}
+		// kinds order by shape name, then calc type
+		assertTrue(RequestKey.of(ShapeName.CIRCLE,CalcType.CALC_VOLUME,9.0).compareTo(RequestKey.of(ShapeName.SQUARE,CalcType.CALC_AREA,0.0))<0);
+		assertTrue(RequestKey.of(ShapeName.CIRCLE,CalcType.CALC_AREA,9.0).compareTo(RequestKey.of(ShapeName.CIRCLE,CalcType.CALC_VOLUME,0.0))<0);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testValueOfNegativeKind() {
+		RequestKey.valueOf(-1, 0L);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testValueOfKindOutOfRange() {
+		RequestKey.valueOf(ShapeName.values().length * CalcType.values().length, 0L);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testOfWithoutShapeName() {
+		RequestKey.of(null, CalcType.CALC_AREA, 1.0);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testOfWithoutCalcType() {
+		RequestKey.of(ShapeName.CIRCLE, null, 1.0);
+	}
+}
@@ -0,0 +1,120 @@
+package com.eli.calc.shape.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.eli.calc.shape.domain.CalculationRequest;
+import com.eli.calc.shape.model.CalcType;
+import com.eli.calc.shape.model.ShapeName;
+import com.eli.calc.shape.service.impl.ResultBloomFilter;
+
+public class JUnitTestResultBloomFilter {
+
+	private static List<CalculationRequest> requests(int num) {
+		List<CalculationRequest> requests = new ArrayList<CalculationRequest>();
+		for (int i=0; i<num; i++) {
+			ShapeName shape = ShapeName.values()[i % ShapeName.values().length];
+			CalcType calc = CalcType.values()[i % CalcType.values().length];
+			requests.add(new CalculationRequest(shape, calc, i * 0.5));
+		}
+		return requests;
+	}
+
+	@Test
+	public void testSizing() {
+		// m = -n*ln(p)/(ln2)^2 = 9585.06 bits, rounded up to whole words; k = (m/n)*ln2 = 6.65
+		ResultBloomFilter filter = new ResultBloomFilter(true, 1000, 0.01);
+		assertEquals(9600 ,filter.getNumBits());
+		assertEquals(1000 ,filter.getExpectedInsertions());
+		assertEquals(0.01 ,filter.getConfiguredFalsePositiveRate(),0);
+
+		// never smaller than one word
+		assertEquals(64 ,new ResultBloomFilter(true, 1, 0.5).getNumBits());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNoExpectedInsertions() {
+		new ResultBloomFilter(true, 0, 0.01);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testFalsePositiveRateOutOfRange() {
+		new ResultBloomFilter(true, 1000, 1.0);
+	}
+
+	@Test
+	public void testNoFalseNegatives() {
+		ResultBloomFilter filter = new ResultBloomFilter(true, 1000, 0.01);
+		List<CalculationRequest> requests = requests(1000);
+		for (CalculationRequest request : requests) {
+			filter.put(request);
+		}
+		for (CalculationRequest request : requests) {
+			assertTrue(filter.mightContain(request));
+		}
+		assertEquals(0 ,filter.getDefiniteMissCount());
+	}
+
+	@Test
+	public void testFalsePositivesNearConfiguredRate() {
+		ResultBloomFilter filter = new ResultBloomFilter(true, 1000, 0.01);
+		for (int dimension=0; dimension<1000; dimension++) {
+			filter.put(new CalculationRequest(ShapeName.SQUARE, CalcType.CALC_AREA, (double)dimension));
+		}
+		int falsePositives = 0;
+		for (int dimension=1000; dimension<11000; dimension++) {
+			if (filter.mightContain(new CalculationRequest(ShapeName.SQUARE, CalcType.CALC_AREA, (double)dimension))) { falsePositives++; }
+		}
+		// 1% of 10000 expected; well clear of it either way
+		assertTrue(falsePositives<300);
+		assertEquals(10000-falsePositives ,filter.getDefiniteMissCount());
+	}
+
+	@Test
+	public void testClear() {
+		ResultBloomFilter filter = new ResultBloomFilter(true, 1000, 0.01);
+		CalculationRequest request = new CalculationRequest(ShapeName.CIRCLE, CalcType.CALC_AREA, 1.0);
+		filter.put(request);
+		assertTrue(filter.mightContain(request));
+
+		filter.clear();
+		assertFalse(filter.mightContain(request));
+		assertEquals(0.0 ,filter.getSaturation(),0);
+	}
+
+	@Test
+	public void testSaturation() {
+		ResultBloomFilter filter = new ResultBloomFilter(true, 1000, 0.01);
+		assertEquals(0.0 ,filter.getSaturation(),0);
+		assertEquals(0.0 ,filter.getEstimatedFalsePositiveRate(),0);
+
+		for (CalculationRequest request : requests(1000)) {
+			filter.put(request);
+		}
+		// filled to its expected insertions, about half the bits are set
+		// and the estimated rate is about the configured one
+		assertEquals(0.5 ,filter.getSaturation(),0.05);
+		assertEquals(0.01 ,filter.getEstimatedFalsePositiveRate(),0.005);
+
+		// putting the same requests again sets no more bits
+		double saturation = filter.getSaturation();
+		for (CalculationRequest request : requests(1000)) {
+			filter.put(request);
+		}
+		assertEquals(saturation ,filter.getSaturation(),0);
+	}
+
+	@Test
+	public void testDisabled() {
+		ResultBloomFilter filter = new ResultBloomFilter(false, 1000, 0.01);
+		assertTrue(filter.mightContain(new CalculationRequest(ShapeName.CIRCLE, CalcType.CALC_AREA, 1.0)));
+		filter.put(new CalculationRequest(ShapeName.CIRCLE, CalcType.CALC_AREA, 1.0));
+		assertEquals(0.0 ,filter.getSaturation(),0);
+	}
+}
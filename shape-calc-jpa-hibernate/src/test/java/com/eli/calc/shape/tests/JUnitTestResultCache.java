@@ -0,0 +1,60 @@
+package com.eli.calc.shape.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.eli.calc.shape.domain.CalculationRequest;
+import com.eli.calc.shape.domain.CalculationResult;
+import com.eli.calc.shape.model.CalcType;
+import com.eli.calc.shape.model.ShapeName;
+import com.eli.calc.shape.service.impl.ResultCache;
+
+public class JUnitTestResultCache {
+
+	private final CalculationRequest request = new CalculationRequest( ShapeName.SPHERE, CalcType.CALC_AREA, 4.0);
+	private final CalculationResult result = new CalculationResult(request,201.06);
+
+	@Test
+	public void testPutAndGet() {
+		ResultCache cache = new ResultCache(10);
+		cache.put(result,cache.getGeneration());
+		assertEquals(result ,cache.get(request));
+		assertEquals(1 ,cache.getHitCount());
+	}
+
+	@Test
+	public void testPutRacingRemoveIsDropped() {
+		ResultCache cache = new ResultCache(10);
+
+		// a lookup read the row, then the result was removed, then the lookup caches what it read
+		long generation = cache.getGeneration();
+		cache.remove(request);
+		cache.put(result,generation);
+
+		assertNull(cache.get(request));
+	}
+
+	@Test
+	public void testPutRacingClearIsDropped() {
+		ResultCache cache = new ResultCache(10);
+
+		long generation = cache.getGeneration();
+		cache.clear();
+		cache.put(result,generation);
+
+		assertNull(cache.get(request));
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		ResultCache cache = new ResultCache(2);
+		for (int dimension=0; dimension<3; dimension++) {
+			cache.put(new CalculationResult(new CalculationRequest( ShapeName.SQUARE, CalcType.CALC_AREA, (double)dimension),1.0*dimension*dimension),cache.getGeneration());
+		}
+		assertEquals(2 ,cache.getSize());
+		assertEquals(1 ,cache.getEvictionCount());
+		assertNull(cache.get(new CalculationRequest( ShapeName.SQUARE, CalcType.CALC_AREA, 0.0)));
+	}
+}
@@ -0,0 +1,162 @@
+package com.eli.calc.shape.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.eli.calc.shape.domain.CalculationRequest;
+import com.eli.calc.shape.domain.CalculationResult;
+import com.eli.calc.shape.model.CalcType;
+import com.eli.calc.shape.model.ShapeName;
+import com.eli.calc.shape.persistence.log.ResultLog;
+
+public class JUnitTestResultLog {
+
+	private static final int SEGMENT_SIZE = 32 * 100; // 100 records
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File dir;
+
+	private ResultLog log;
+
+	@Before // each test
+	public void setUp() throws Exception {
+		dir = folder.newFolder("results-log");
+		log = reopen();
+	}
+
+	@After // each test
+	public void tearDown() throws Exception {
+		log.close();
+	}
+
+	private ResultLog reopen() throws Exception {
+		if (null!=log) { log.close(); }
+		ResultLog reopened = new ResultLog(dir, SEGMENT_SIZE, false);
+		reopened.open();
+		return reopened;
+	}
+
+	private static CalculationResult result(double dimension, double value) {
+		return new CalculationResult(new CalculationRequest(ShapeName.SPHERE, CalcType.CALC_VOLUME, dimension), value);
+	}
+
+	@Test
+	public void testResultsSurviveReopen() throws Exception {
+
+		List<CalculationResult> results = new ArrayList<CalculationResult>();
+		for (int i=0; i<250; i++) {
+			results.add(result(i, i * 2.0));
+		}
+		log.putAll(results);
+		log.put(result(7, 99.0));
+
+		CalculationResult error = new CalculationResult(new CalculationRequest(ShapeName.CIRCLE, CalcType.CALC_AREA, 1.0));
+		error.setError(true);
+		log.put(error);
+
+		assertTrue(log.remove(result(8, 0).getRequest()));
+		assertFalse(log.remove(result(1000, 0).getRequest()));
+
+		log = reopen();
+
+		assertEquals(250,log.size());
+		assertEquals(3,log.getNumSegments());
+		assertEquals(99.0,log.get(result(7, 0).getRequest()).getResult(),0);
+		assertEquals(18.0,log.get(result(9, 0).getRequest()).getResult(),0);
+		assertNull(log.get(result(8, 0).getRequest()));
+		assertTrue(log.get(error.getRequest()).isError());
+		assertNull(log.get(error.getRequest()).getResult());
+	}
+
+	@Test
+	public void testTornRecordIsIgnored() throws Exception {
+
+		log.put(result(1, 1.0));
+		log.put(result(2, 2.0));
+		log.close();
+
+		// as if the process died part way through writing the second record
+		File segment = dir.listFiles((d,name) -> name.endsWith(".log"))[0];
+		try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+			raf.seek(32 + 20);
+			raf.writeInt(0x12345678);
+		}
+
+		log = reopen();
+		assertEquals(1,log.size());
+		assertNull(log.get(result(2, 0).getRequest()));
+
+		// appending resumes over the torn record
+		log.put(result(3, 3.0));
+		log = reopen();
+		assertEquals(2,log.size());
+		assertEquals(3.0,log.get(result(3, 0).getRequest()).getResult(),0);
+	}
+
+	@Test
+	public void testCompactKeepsLatestResults() throws Exception {
+
+		for (int round=0; round<5; round++) {
+			for (int i=0; i<100; i++) {
+				log.put(result(i, round));
+			}
+		}
+		for (int i=0; i<50; i++) {
+			log.remove(result(i, 0).getRequest());
+		}
+		assertEquals(550,log.getNumRecords());
+
+		assertFalse(log.compact(0.95));
+		assertTrue(log.compact(0.5));
+
+		assertEquals(50,log.getNumRecords());
+		assertEquals(1,log.getNumSegments());
+		assertEquals(1,dir.listFiles((d,name) -> name.endsWith(".log")).length);
+
+		log = reopen();
+		assertEquals(50,log.size());
+		assertNull(log.get(result(0, 0).getRequest()));
+		assertEquals(4.0,log.get(result(99, 0).getRequest()).getResult(),0);
+
+		List<CalculationResult> page = log.getAfter(result(97, 0).getRequest(), 10);
+		assertEquals(2,page.size());
+		assertEquals(98.0,page.get(0).getDimension(),0);
+	}
+
+	@Test(expected=IOException.class)
+	public void testDirectoryIsLocked() throws Exception {
+		new ResultLog(dir, SEGMENT_SIZE, false).open();
+	}
+
+	@Test
+	public void testClear() throws Exception {
+
+		for (int i=0; i<150; i++) {
+			log.put(result(i, i));
+		}
+		log.clear();
+		assertEquals(0,log.size());
+		assertEquals(1,log.getNumSegments());
+
+		log.put(result(1, 1.0));
+		log = reopen();
+		assertEquals(1,log.size());
+		assertEquals(1,log.forEach(r -> { }));
+	}
+}
@@ -0,0 +1,55 @@
+package com.eli.calc.shape.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.TestPropertySource;
+
+import com.eli.calc.shape.domain.CalculationRequest;
+import com.eli.calc.shape.domain.CalculationResult;
+import com.eli.calc.shape.model.CalcType;
+import com.eli.calc.shape.model.ShapeName;
+import com.eli.calc.shape.persistence.HibernateCacheStatistics;
+import com.eli.calc.shape.persistence.service.CalculationResultPersistService;
+
+/**
+ * the results tests again, with the Hibernate second-level and query cache on
+ * (and results streamed without clearing the persistence context)
+ */
+@TestPropertySource(properties={"persist.cache.enabled=true","persist.stream.clear.interval=0"})
+public class JUnitTestSecondLevelCache extends JUnitTestCalculatedResults {
+
+	@Autowired
+	private CalculationResultPersistService resultPersistService;
+
+	@Autowired
+	private HibernateCacheStatistics cacheStatistics;
+
+	@Test
+	public void testRepeatedReadsAreCached() {
+
+		assertTrue(cacheStatistics.isEnabled());
+
+		CalculationRequest request = new CalculationRequest( ShapeName.CUBE, CalcType.CALC_VOLUME, 3.0);
+		resultPersistService.saveResult( new CalculationResult(request,27.0));
+
+		resultPersistService.findResultByRequest(request);
+		long hits = cacheStatistics.getSecondLevelCacheHitCount();
+		assertEquals(27.0 ,resultPersistService.findResultByRequest(request).getResult(),0);
+		assertTrue(cacheStatistics.getSecondLevelCacheHitCount()>hits);
+
+		resultPersistService.getResultsAfter(null, 10);
+		long queryHits = cacheStatistics.getQueryCacheHitCount();
+		assertEquals(1 ,resultPersistService.getResultsAfter(null, 10).size());
+		assertTrue(cacheStatistics.getQueryCacheHitCount()>queryHits);
+
+		// the bulk delete empties the region, and the cached page goes stale with the table
+		resultPersistService.deleteAllResults();
+		assertNull(resultPersistService.findResultByRequest(request));
+		assertEquals(0 ,resultPersistService.getResultsAfter(null, 10).size());
+		assertEquals(0 ,cacheStatistics.getResultRegionElementCount());
+	}
+}
@@ -0,0 +1,114 @@
+package com.eli.calc.shape.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+
+import com.eli.calc.shape.model.CalcType;
+import com.eli.calc.shape.model.ShapeName;
+import com.eli.calc.shape.service.ShapeCalculatorService;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * the calculator tests again, each calculation on a virtual thread
+ * (skipped before Java 21). The results are stored by the thread running
+ * the queue: with the jpa backend, storing on the virtual threads
+ * (calculator.persist.in.task.enabled) would pin them - see base.properties.
+ */
+@ContextConfiguration(classes={TaskThreads.class})
+@TestPropertySource(properties={"executor.mode=virtual","calculator.drain.chunk.size=5000"})
+public class JUnitTestVirtualThreads extends JUnitTest {
+
+	@Autowired
+	private ShapeCalculatorService calculator;
+
+	@BeforeClass
+	public static void virtualThreadsAvailable() {
+		boolean available;
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			available = true;
+		} catch (NoSuchMethodException e) {
+			available = false;
+		}
+		assumeTrue(available);
+	}
+
+	@Test
+	public void testManyCalculationsInFlight() {
+
+		for (int i=0; i<5000; i++) {
+			calculator.queueCalculationRequest(ShapeName.SQUARE, CalcType.CALC_AREA, i);
+		}
+
+		// one chunk - every calculation waits at the same time, each on its own thread
+		assertEquals(5000,calculator.runAllPendingRequestsNoStopOnError());
+		assertEquals(0,calculator.getAllPendingRequests().size());
+	}
+
+	@Test
+	public void testEachCalculationOnAVirtualThreadOfItsOwn() throws Exception {
+
+		TaskThreads.clear();
+		for (int i=0; i<500; i++) {
+			calculator.queueCalculationRequest(ShapeName.CUBE, CalcType.CALC_AREA, i);
+		}
+		assertEquals(500,calculator.runAllPendingRequestsNoStopOnError());
+
+		// a thread per calculation, waited and computed on alike
+		assertEquals(500,TaskThreads.waiting.size());
+		assertEquals(500,TaskThreads.numOnOneThread.get());
+		for (Thread thread : TaskThreads.waiting) {
+			assertTrue(thread.toString(), isVirtual(thread));
+		}
+	}
+
+	@Test
+	public void testCalculationsDoNotPinTheirCarriers() throws Exception {
+
+		for (int i=0; i<2000; i++) {
+			calculator.queueCalculationRequest(ShapeName.CIRCLE, CalcType.CALC_VOLUME, i);
+		}
+
+		List<String> pinned = new ArrayList<String>();
+		File dump = File.createTempFile("virtual-thread-pinning", ".jfr");
+		try (Recording recording = new Recording()) {
+			// every time a virtual thread blocks while pinned, however briefly
+			recording.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO).withStackTrace();
+			recording.start();
+
+			calculator.runAllPendingRequestsNoStopOnError();
+
+			recording.stop();
+			recording.dump(dump.toPath());
+
+			for (RecordedEvent event : RecordingFile.readAllEvents(dump.toPath())) {
+				pinned.add(String.valueOf(event.getStackTrace()));
+			}
+		} finally {
+			dump.delete();
+		}
+
+		assertEquals(pinned.toString(), 0, pinned.size());
+	}
+
+	private static boolean isVirtual(Thread thread) throws Exception {
+		// Thread.isVirtual() - looked up, as this is built for Java 8
+		return (Boolean)Thread.class.getMethod("isVirtual").invoke(thread);
+	}
+}
@@ -0,0 +1,62 @@
+package com.eli.calc.shape.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+
+import com.eli.calc.shape.model.CalcType;
+import com.eli.calc.shape.model.ShapeName;
+import com.eli.calc.shape.service.ShapeCalculatorService;
+
+/**
+ * the calculator tests again, computing on a work-stealing pool
+ * and waiting on a separate (small) blocking pool
+ */
+@ContextConfiguration(classes={TaskThreads.class})
+@TestPropertySource(properties={"executor.mode=work-stealing","executor.blocking.pool.size=16","executor.parallelism=2"})
+public class JUnitTestWorkStealing extends JUnitTest {
+
+	@Autowired
+	private ShapeCalculatorService calculator;
+
+	@Autowired
+	@Qualifier("computeExecutor")
+	private Executor computeExecutor;
+
+	@Test
+	public void testComputesOnTheWorkStealingPoolAndWaitsOnTheBlockingPool() {
+
+		TaskThreads.clear();
+		for (int i=0; i<200; i++) {
+			calculator.queueCalculationRequest(ShapeName.SPHERE, CalcType.CALC_VOLUME, i);
+		}
+		assertEquals(200,calculator.runAllPendingRequestsNoStopOnError());
+
+		// computed on the work-stealing pool, no more threads of it than executor.parallelism
+		assertFalse(TaskThreads.computing.isEmpty());
+		for (Thread thread : TaskThreads.computing) {
+			assertTrue(thread.getName(), thread instanceof ForkJoinWorkerThread);
+			assertSame(computeExecutor, ((ForkJoinWorkerThread)thread).getPool());
+		}
+		assertTrue(TaskThreads.computing.size()<=2);
+
+		// and waited on the blocking pool, none of it on the work-stealing one
+		assertFalse(TaskThreads.waiting.isEmpty());
+		for (Thread thread : TaskThreads.waiting) {
+			assertFalse(thread.getName(), thread instanceof ForkJoinWorkerThread);
+			assertFalse(thread.getName(), Thread.currentThread()==thread);
+		}
+		assertTrue(TaskThreads.waiting.size()<=16);
+		assertEquals(0,TaskThreads.numOnOneThread.get());
+	}
+}
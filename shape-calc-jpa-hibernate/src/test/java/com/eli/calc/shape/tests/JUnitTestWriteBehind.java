@@ -0,0 +1,62 @@
+package com.eli.calc.shape.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.TestPropertySource;
+
+import com.eli.calc.shape.model.CalcType;
+import com.eli.calc.shape.model.ShapeName;
+import com.eli.calc.shape.service.ShapeCalculatorService;
+import com.eli.calc.shape.service.impl.ResultWriteBehind;
+
+/**
+ * the calculator tests again, with the results written behind
+ */
+@TestPropertySource(properties={"results.write.behind.enabled=true","results.write.behind.max.batch.size=7","calculator.drain.chunk.size=40"})
+public class JUnitTestWriteBehind extends JUnitTest {
+
+	@Autowired
+	private ShapeCalculatorService calculator;
+
+	@Autowired
+	private ResultWriteBehind writeBehind;
+
+	@Test
+	public void testRunsStoreThroughTheWriteBehind() {
+
+		long storedBefore = writeBehind.getStoredCount();
+		long batchesBefore = writeBehind.getFlushCount();
+
+		for (int i=0; i<30; i++) {
+			calculator.queueCalculationRequest(ShapeName.CUBE, CalcType.CALC_VOLUME, i);
+		}
+		assertEquals(30,calculator.runAllPendingRequestsNoStopOnError());
+		calculator.flushResults();
+
+		// every result stored by the flusher, in batches of at most 7
+		assertEquals(30,writeBehind.getStoredCount()-storedBefore);
+		assertTrue(writeBehind.getFlushCount()-batchesBefore>=5);
+		assertEquals(0,writeBehind.getRetryingCount());
+	}
+
+	@Test
+	public void testUnflushedResultsAreNotQueuedAgain() {
+
+		for (int i=0; i<100; i++) {
+			calculator.queueCalculationRequest(ShapeName.SQUARE, CalcType.CALC_AREA, i);
+		}
+		assertEquals(100,calculator.runAllPendingRequestsNoStopOnError());
+
+		// whether or not they are stored yet, these have results
+		for (int i=0; i<100; i++) {
+			calculator.queueCalculationRequest(ShapeName.SQUARE, CalcType.CALC_AREA, i);
+		}
+
+		calculator.flushResults();
+		assertEquals(0,calculator.getAllPendingRequests().size());
+		assertEquals(100,calculator.getAllCalculatedResults().size());
+	}
+}
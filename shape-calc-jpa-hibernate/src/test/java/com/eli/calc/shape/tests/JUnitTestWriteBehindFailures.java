@@ -0,0 +1,209 @@
+package com.eli.calc.shape.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.eli.calc.shape.config.ShapeCalcBaseContext;
+import com.eli.calc.shape.domain.CalculationRequest;
+import com.eli.calc.shape.domain.CalculationResult;
+import com.eli.calc.shape.model.CalcType;
+import com.eli.calc.shape.model.ShapeName;
+import com.eli.calc.shape.service.CalculatedResults;
+import com.eli.calc.shape.service.PendingRequests;
+import com.eli.calc.shape.service.ShapeCalculatorService;
+import com.eli.calc.shape.service.impl.RequestDispatcher;
+import com.eli.calc.shape.service.impl.ResultWriteBehind;
+
+/**
+ * what the write-behind does with results it can not store
+ */
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes={ShapeCalcBaseContext.class})
+@TestPropertySource(properties={"results.write.behind.enabled=true","results.write.behind.retry.interval.ms=20"})
+public class JUnitTestWriteBehindFailures {
+
+	@Autowired
+	private ResultWriteBehind writeBehind;
+
+	@Autowired
+	private CalculatedResults calculatedResults;
+
+	@Autowired
+	private PendingRequests pendingRequests;
+
+	@Autowired
+	private RequestDispatcher dispatcher;
+
+	@Autowired
+	private ShapeCalculatorService calculator;
+
+	@Autowired
+	private ApplicationContext ctx;
+
+	@Before // each test
+	public void setUp() throws Exception {
+		pendingRequests.deleteAllRequests();
+		calculatedResults.deleteAllResults();
+	}
+
+	@Test
+	public void testBatchWithAStoredResultIsStoredOneAtATime() throws Exception {
+		CalculationRequest stored = new CalculationRequest(ShapeName.SQUARE, CalcType.CALC_AREA, 2.0);
+		CalculationRequest fresh = new CalculationRequest(ShapeName.SQUARE, CalcType.CALC_AREA, 3.0);
+		pendingRequests.putRequests(Arrays.asList(stored, fresh));
+		calculatedResults.putResult(new CalculationResult(stored, 4.0));
+
+		// the batch fails on the result already stored, so each is stored on its own - and that one skipped
+		long batchesBefore = writeBehind.getFlushCount();
+		writeBehind.submit(Arrays.asList(stored, fresh), Arrays.asList(new CalculationResult(stored, 4.0), new CalculationResult(fresh, 9.0)));
+		writeBehind.flush();
+
+		assertTrue(writeBehind.getFlushCount()>batchesBefore);
+		assertEquals(0 ,writeBehind.getRetryingCount());
+		assertNull(writeBehind.getUnflushed(fresh));
+		assertEquals(2 ,calculatedResults.getResults().size());
+		assertEquals(0 ,pendingRequests.getNumRequests());
+	}
+
+	@Test
+	@DirtiesContext // the entry is never stored, so every later flush would fail
+	public void testResultThatCanNotBeStoredIsKeptAndRetried() throws Exception {
+		CalculationRequest request = new CalculationRequest(ShapeName.CUBE, CalcType.CALC_VOLUME, 5.0);
+		pendingRequests.putRequest(request);
+
+		// no result value - the column does not allow it, so it fails every time
+		CalculationResult unstorable = new CalculationResult(request);
+		writeBehind.submit(Collections.singletonList(request), Collections.singletonList(unstorable));
+
+		try {
+			writeBehind.flush();
+			fail("flush() should fail while its entries can not be stored");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		// kept, still answered from memory, and its request still pending
+		assertEquals(1 ,writeBehind.getRetryingCount());
+		assertNotNull(writeBehind.getUnflushed(request));
+		assertEquals(1 ,pendingRequests.getNumRequests());
+
+		// and retried, each failed try counted
+		long failed = writeBehind.getFailedCount();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+		while (writeBehind.getFailedCount()<failed+2 && System.nanoTime()<deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(writeBehind.getFailedCount()>=failed+2);
+		assertEquals(1 ,writeBehind.getRetryingCount());
+	}
+
+	@Test
+	@DirtiesContext // as above
+	public void testReadsDoNotFailWhileRetrying() throws Exception {
+		CalculationRequest request = new CalculationRequest(ShapeName.CIRCLE, CalcType.CALC_AREA, 5.0);
+		pendingRequests.putRequest(request);
+		calculatedResults.putResultsBehind(Collections.singletonList(request), Collections.singletonList(new CalculationResult(request)));
+
+		// the reads wait for it to be tried, and then answer it from memory ...
+		assertEquals(0 ,calculatedResults.getResults().size());
+		assertEquals(1 ,writeBehind.getRetryingCount());
+		assertTrue(calculatedResults.containsRequest(request));
+		assertNotNull(calculatedResults.getResults(Collections.singletonList(request)).get(request));
+		assertEquals(1 ,calculator.getAllPendingRequests().size());
+
+		// ... while an explicit flush still reports it
+		try {
+			calculator.flushResults();
+			fail("flushResults() should fail while results can not be stored");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testGivenUpOnAfterMaxRetries() throws Exception {
+		ResultWriteBehind limited = new ResultWriteBehind(true, 10, 10, 0, 20, 2);
+		ctx.getAutowireCapableBeanFactory().autowireBean(limited);
+		limited.afterPropertiesSet();
+		try {
+			CalculationRequest request = new CalculationRequest(ShapeName.CUBE, CalcType.CALC_AREA, 6.0);
+			pendingRequests.putRequest(request);
+			limited.submit(Collections.singletonList(request), Collections.singletonList(new CalculationResult(request)));
+			limited.catchUp();
+
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+			while (0==limited.getGivenUpCount() && System.nanoTime()<deadline) {
+				Thread.sleep(10);
+			}
+
+			// tried once in its batch, once on its own, then twice more - and dropped
+			assertEquals(1 ,limited.getGivenUpCount());
+			assertEquals(3 ,limited.getFailedCount());
+			assertEquals(0 ,limited.getRetryingCount());
+			assertNull(limited.getUnflushed(request));
+			// its request left pending, to be run again
+			assertEquals(1 ,pendingRequests.getNumRequests());
+		} finally {
+			limited.destroy();
+		}
+	}
+
+	@Test
+	@DirtiesContext // as above
+	public void testDispatcherPassesOverResultsWaitingToBeStored() throws Exception {
+		CalculationRequest request = new CalculationRequest(ShapeName.SPHERE, CalcType.CALC_AREA, 5.0);
+		pendingRequests.putRequest(request);
+		calculatedResults.putResultsBehind(Collections.singletonList(request), Collections.singletonList(new CalculationResult(request)));
+
+		// queued for as long as its result can not be stored - but answered, so not to be dispatched
+		long dispatchedBefore = dispatcher.getDispatchedCount();
+		long skippedBefore = dispatcher.getSkippedCount();
+		dispatcher.start();
+		try {
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+			while (dispatcher.getSkippedCount()<skippedBefore+2 && System.nanoTime()<deadline) {
+				Thread.sleep(10);
+			}
+		} finally {
+			dispatcher.stop();
+		}
+
+		assertTrue(dispatcher.getSkippedCount()>=skippedBefore+2);
+		assertEquals(0 ,dispatcher.getDispatchedCount()-dispatchedBefore);
+		assertEquals(1 ,pendingRequests.getNumRequests());
+	}
+
+	@Test
+	public void testNothingQueuedOnceShutDown() throws Exception {
+		ResultWriteBehind stopped = new ResultWriteBehind(true, 10, 10, 0, 1000, 10);
+		stopped.afterPropertiesSet();
+		stopped.destroy();
+
+		CalculationRequest request = new CalculationRequest(ShapeName.CIRCLE, CalcType.CALC_AREA, 1.0);
+		try {
+			stopped.submit(Collections.singletonList(request), Collections.singletonList(new CalculationResult(request, Math.PI)));
+			fail("submit() should fail once shut down");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		// not left to answer for a result that will never be stored
+		assertNull(stopped.getUnflushed(request));
+	}
+}
@@ -0,0 +1,132 @@
+package com.eli.calc.shape.tests;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+
+import com.eli.calc.shape.ShapeCalculationsFactory;
+import com.eli.calc.shape.model.CalcType;
+import com.eli.calc.shape.model.EqualDimShapeCalculations;
+import com.eli.calc.shape.model.ShapeName;
+import com.eli.calc.shape.persistence.service.CalculationResultPersistService;
+
+/**
+ * Added to a test's context, records the threads the calculator tasks
+ * wait and compute on, and those results are stored on - so a test can
+ * check where its executor.mode (or persist stage) runs each part. (Not a @Configuration, or the calculator's component
+ * scan would add it to every context.)
+ */
+public class TaskThreads {
+
+	static final Set<Thread> waiting = Collections.newSetFromMap(new ConcurrentHashMap<Thread,Boolean>());
+	static final Set<Thread> computing = Collections.newSetFromMap(new ConcurrentHashMap<Thread,Boolean>());
+
+	static final Set<Thread> storing = Collections.newSetFromMap(new ConcurrentHashMap<Thread,Boolean>());
+
+	//the calculations computed, and those whose wait and compute ran on one thread
+	static final AtomicInteger numCalculated = new AtomicInteger();
+	static final AtomicInteger numOnOneThread = new AtomicInteger();
+
+	//the calculations started (waiting or computing) and not yet finished
+	static final AtomicInteger numUnderWay = new AtomicInteger();
+
+	//the most results being stored at the same time
+	static final AtomicInteger maxStoringAtOnce = new AtomicInteger();
+	private static final AtomicInteger numStoringNow = new AtomicInteger();
+
+	static void clear() {
+		waiting.clear();
+		computing.clear();
+		storing.clear();
+		numCalculated.set(0);
+		numOnOneThread.set(0);
+		numUnderWay.set(0);
+		maxStoringAtOnce.set(0);
+	}
+
+	@Bean
+	public static BeanPostProcessor recordTaskThreads() {
+		return new BeanPostProcessor() {
+
+			@Override
+			public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+				return bean;
+			}
+
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+				if (bean instanceof CalculationResultPersistService) { return recording((CalculationResultPersistService)bean); }
+				if (!(bean instanceof ShapeCalculationsFactory)) { return bean; }
+
+				final ShapeCalculationsFactory shapeFactory = (ShapeCalculationsFactory)bean;
+				return (ShapeCalculationsFactory)(shapeName, calcType) -> recording(shapeFactory.createShapeCalculation(shapeName, calcType));
+			}
+		};
+	}
+
+	private static CalculationResultPersistService recording(final CalculationResultPersistService persistService) {
+
+		return (CalculationResultPersistService)Proxy.newProxyInstance(TaskThreads.class.getClassLoader(),
+				new Class<?>[] { CalculationResultPersistService.class }, (proxy, method, args) -> {
+
+			boolean store = method.getName().startsWith("save");
+			if (store) {
+				storing.add(Thread.currentThread());
+				int now = numStoringNow.incrementAndGet();
+				maxStoringAtOnce.accumulateAndGet(now, Math::max);
+			}
+			try {
+				return method.invoke(persistService, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			} finally {
+				if (store) { numStoringNow.decrementAndGet(); }
+			}
+		});
+	}
+
+	private static EqualDimShapeCalculations recording(final EqualDimShapeCalculations shape) {
+
+		return new EqualDimShapeCalculations() {
+
+			private volatile Thread waitedOn;
+
+			@Override
+			public ShapeName getShapeName() {
+				return shape.getShapeName();
+			}
+
+			@Override
+			public CalcType getCalcType() {
+				return shape.getCalcType();
+			}
+
+			@Override
+			public void simulateLatency() {
+				numUnderWay.incrementAndGet();
+				waitedOn = Thread.currentThread();
+				waiting.add(waitedOn);
+				shape.simulateLatency();
+			}
+
+			@Override
+			public double calculate(double d) {
+				computing.add(Thread.currentThread());
+				numCalculated.incrementAndGet();
+				if (waitedOn==Thread.currentThread()) { numOnOneThread.incrementAndGet(); }
+				try {
+					return shape.calculate(d);
+				} finally {
+					numUnderWay.decrementAndGet();
+				}
+			}
+		};
+	}
+}